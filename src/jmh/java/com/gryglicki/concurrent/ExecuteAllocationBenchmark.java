@@ -0,0 +1,90 @@
+package com.gryglicki.concurrent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+/**
+ * Single threaded {@link SynchronizedResourceSharingTaskExecutor#execute} on the already open Resource
+ * and on the Resource opened and closed by each execution.
+ * Meant to be run with the GC profiler to check the allocation rate of the hot path, which should be ~0 B/op:
+ * <pre>gradle jmh -PjmhArgs="ExecuteAllocationBenchmark -prof gc"</pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteAllocationBenchmark {
+    private static final String OPEN_KEY = "open";
+    private static final String CLOSED_KEY = "closed";
+
+    private final SynchronizedResourceSharingTaskExecutor<String, long[]> executor = new SynchronizedResourceSharingTaskExecutor<>();
+    private final TaskOnResource<String, long[]> openResourceTask = incrementTask(OPEN_KEY);
+    private final TaskOnResource<String, long[]> closedResourceTask = incrementTask(CLOSED_KEY);
+    private final long[] closedResource = new long[1];
+    private final CountDownLatch holderFinish = new CountDownLatch(1);
+    private Thread holder;
+
+    /**
+     * Keeps the Resource open by the task that waits on it's monitor, which releases the monitor for the measured tasks.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        CountDownLatch holderStarted = new CountDownLatch(1);
+        holder = new Thread(() -> executor.execute(TaskOnResourceBuilder.<String, long[]>builderWithDiscriminator(OPEN_KEY)
+                        .withOpenResource(() -> new long[1])
+                        .withCloseResource(resource -> {})
+                        .withExecuteOn(resource -> {
+                            holderStarted.countDown();
+                            while (holderFinish.getCount() > 0) {
+                                try {
+                                    resource.wait(10);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    return;
+                                }
+                            }
+                        })
+                        .build()));
+        holder.setDaemon(true);
+        holder.start();
+        holderStarted.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        holderFinish.countDown();
+        holder.join();
+    }
+
+    @Benchmark
+    public void executeOnOpenResource() {
+        executor.execute(openResourceTask);
+    }
+
+    @Benchmark
+    public void executeWithOpenAndClose() {
+        executor.execute(closedResourceTask);
+    }
+
+    private TaskOnResource<String, long[]> incrementTask(String discriminator) {
+        return TaskOnResourceBuilder.<String, long[]>builderWithDiscriminator(discriminator)
+                        .withOpenResource(() -> OPEN_KEY.equals(discriminator) ? new long[1] : closedResource)
+                        .withCloseResource(resource -> {})
+                        .withExecuteOn(resource -> resource[0]++)
+                        .build();
+    }
+}
@@ -0,0 +1,42 @@
+package com.gryglicki.concurrent;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+/**
+ * Implementations of {@link ResourceSharingTaskExecutor} compared by the benchmarks.
+ */
+public enum ExecutorType {
+    SYNCHRONIZED {
+        <RESOURCE_DISC, RESOURCE> ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> create() {
+            return new SynchronizedResourceSharingTaskExecutor<>();
+        }
+    },
+    CONCURRENT {
+        <RESOURCE_DISC, RESOURCE> ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> create() {
+            return new ConcurrentResourceSharingTaskExecutor<>();
+        }
+    },
+    ASYNC {
+        <RESOURCE_DISC, RESOURCE> ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> create() {
+            return new AsyncResourceSharingTaskExecutor<>(ForkJoinPool.commonPool());
+        }
+    },
+    CACHING {
+        <RESOURCE_DISC, RESOURCE> ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> create() {
+            return new CachingResourceSharingTaskExecutor<>(1024, 1, TimeUnit.SECONDS);
+        }
+    },
+    SHARDED {
+        <RESOURCE_DISC, RESOURCE> ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> create() {
+            return new ShardedResourceSharingTaskExecutor<>(1024);
+        }
+    };
+
+    abstract <RESOURCE_DISC, RESOURCE> ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> create();
+
+    static void shutdown(ResourceSharingTaskExecutor<?, ?> executor) throws Exception {
+        if (executor instanceof AutoCloseable) {
+            ((AutoCloseable) executor).close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.gryglicki.concurrent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+/**
+ * Throughput of the {@link ResourceSharingTaskExecutor} implementations executing tasks on randomly chosen Resources.
+ * Compares different numbers of threads, Resource discriminator cardinality, task durations,
+ * costs of opening/closing of the Resource and in-memory vs file Resources.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourceSharingTaskExecutorBenchmark {
+
+    @Param({"SYNCHRONIZED", "CONCURRENT", "ASYNC", "CACHING", "SHARDED"})
+    private ExecutorType executorType;
+
+    @Param({"1", "16", "10000"})
+    private int keys;
+
+    @Param({"STRING_BUILDER", "FILE", "BUFFERED_FILE"})
+    private ResourceType resourceType;
+
+    @Param({"0", "100"})
+    private long taskTokens;
+
+    @Param({"0", "1000"})
+    private long openCloseTokens;
+
+    private ResourceSharingTaskExecutor<Integer, Appendable> executor;
+    private TaskOnResource<Integer, Appendable>[] tasks;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException {
+        executor = executorType.create();
+        directory = Files.createTempDirectory("resource-sharing-benchmark");
+        tasks = new TaskOnResource[keys];
+        for (int key = 0; key < keys; key++) {
+            tasks[key] = resourceType.task(directory, key, taskTokens, openCloseTokens);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ExecutorType.shutdown(executor);
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void oneThread() {
+        executeOnRandomResource();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fourThreads() {
+        executeOnRandomResource();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void sixteenThreads() {
+        executeOnRandomResource();
+    }
+
+    private void executeOnRandomResource() {
+        executor.execute(tasks[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+}
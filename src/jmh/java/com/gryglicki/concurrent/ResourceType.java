@@ -0,0 +1,92 @@
+package com.gryglicki.concurrent;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+/**
+ * Resources used by the benchmarks. All of them are {@link Appendable}, so the same tasks can be executed on them.
+ * Costs of opening/closing of the Resource and of the task itself are simulated with {@link Blackhole#consumeCPU}.
+ */
+public enum ResourceType {
+    STRING_BUILDER {
+        Appendable open(Path directory, int key) {
+            return new StringBuilder();
+        }
+
+        void close(Appendable resource) {
+        }
+
+        void append(Appendable resource) {
+            StringBuilder sb = (StringBuilder) resource;
+            if (sb.length() > 1024) {
+                sb.setLength(0);
+            }
+            sb.append('x');
+        }
+    },
+    FILE {
+        Appendable open(Path directory, int key) throws IOException {
+            return new FileWriter(directory.resolve(key + ".txt").toFile(), true);
+        }
+
+        void close(Appendable resource) throws IOException {
+            ((FileWriter) resource).close();
+        }
+
+        void append(Appendable resource) throws IOException {
+            resource.append("x\n");
+        }
+    },
+    BUFFERED_FILE {
+        Appendable open(Path directory, int key) {
+            return BufferedFileAppender.open(directory.resolve(key + ".txt"), 8192, 10, TimeUnit.MILLISECONDS);
+        }
+
+        void close(Appendable resource) {
+            ((BufferedFileAppender) resource).close();
+        }
+
+        void append(Appendable resource) {
+            ((BufferedFileAppender) resource).append("x\n");
+        }
+    };
+
+    abstract Appendable open(Path directory, int key) throws IOException;
+
+    abstract void close(Appendable resource) throws IOException;
+
+    abstract void append(Appendable resource) throws IOException;
+
+    TaskOnResource<Integer, Appendable> task(Path directory, int key, long taskTokens, long openCloseTokens) {
+        return TaskOnResourceBuilder.<Integer, Appendable>builderWithDiscriminator(key)
+                        .withOpenResource(() -> {
+                            Blackhole.consumeCPU(openCloseTokens);
+                            try {
+                                return open(directory, key);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                        .withCloseResource(resource -> {
+                            Blackhole.consumeCPU(openCloseTokens);
+                            try {
+                                close(resource);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                        .withExecuteOn(resource -> {
+                            Blackhole.consumeCPU(taskTokens);
+                            try {
+                                append(resource);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                        .build();
+    }
+}
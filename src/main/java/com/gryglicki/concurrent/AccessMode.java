@@ -0,0 +1,17 @@
+package com.gryglicki.concurrent;
+
+/**
+ * Defines how the {@link TaskOnResource} accesses it's Resource.
+ * Executors that don't support shared access (e.g. {@link SynchronizedResourceSharingTaskExecutor})
+ * execute all the tasks exclusively.
+ */
+public enum AccessMode {
+    /**
+     * Task only reads the Resource, so it can be executed in parallel with other shared tasks on the same Resource.
+     */
+    SHARED,
+    /**
+     * Task modifies the Resource, so no other task can be executed on the same Resource at the same time.
+     */
+    EXCLUSIVE
+}
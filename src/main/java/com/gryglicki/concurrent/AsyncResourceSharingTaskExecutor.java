@@ -0,0 +1,310 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+/**
+ * Asynchronous implementation of {@link ResourceSharingTaskExecutor} running tasks on the given {@link Executor}.
+ * Each Resource discriminator value has it's own lock-free queue of waiting tasks. Single worker drains the whole
+ * queue against the opened Resource and closes the Resource once the queue is empty, so no thread is ever blocked
+ * waiting for the Resource and tasks on the same Resource are executed in FIFO order.
+ * After {@value #MAX_TASKS_PER_DRAIN} tasks the worker hands the queue back to the {@link Executor}
+ * (keeping the Resource open), so hot Resources don't starve other ones on small thread pools.
+ * When the {@link Executor} rejects the queue, the scheduling thread completes the next
+ * {@value #MAX_TASKS_PER_DRAIN} tasks with the rejection and tries to hand the queue back again.
+ *
+ * Optionally tasks waiting for the Resource can be executed in batches with {@link TaskOnResource#executeBatchOn}
+ * of the first task in the batch. Worker takes up to the max batch size of the queued tasks and, if there are
+ * not enough of them, waits for more at most the max linger time (keeping it's thread busy).
+ *
+ * Task still waiting in the queue can be cancelled with {@link CompletableFuture#cancel} of it's future
+ * (e.g. after the caller's deadline has passed) and is skipped by the worker.
+ */
+@ThreadSafe
+public class AsyncResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> implements ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> {
+    static final int MAX_TASKS_PER_DRAIN = 256;
+    private static final long LINGER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final ConcurrentMap<RESOURCE_DISC, ResourceQueue> resourceQueues = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor executor that will run the tasks
+     */
+    public AsyncResourceSharingTaskExecutor(Executor executor) {
+        this(executor, 1, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param executor executor that will run the tasks
+     * @param maxBatchSize max number of tasks executed at once with {@link TaskOnResource#executeBatchOn}
+     * @param maxLinger max time to wait for the batch to fill up, the worker parks it's thread in short intervals
+     *                  meanwhile, so each lingering drain occupies one thread of the executor for up to this time
+     * @param unit time unit of the maxLinger
+     */
+    public AsyncResourceSharingTaskExecutor(Executor executor, int maxBatchSize, long maxLinger, TimeUnit unit) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (maxLinger < 0) {
+            throw new IllegalArgumentException("maxLinger must not be negative: " + maxLinger);
+        }
+        this.executor = requireNonNull(executor);
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = unit.toNanos(maxLinger);
+    }
+
+    /**
+     * Executes given task and waits for it's completion.
+     * @param task task to be executed
+     */
+    public void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        try {
+            executeAsync(task).join();
+        } catch (CompletionException ex) {
+            throw unwrap(ex);
+        }
+    }
+
+    /**
+     * Queues given task for the execution on it's Resource.
+     * @param task task to be executed
+     * @return future completed when the task is executed and the Resource is released,
+     *         cancelling it before the task is executed removes the task from the queue
+     */
+    public CompletableFuture<Void> executeAsync(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        PendingTask<RESOURCE_DISC, RESOURCE> pendingTask = new PendingTask<>(task);
+        RESOURCE_DISC resourceDesc = task.getResourceDiscriminator();
+        while (true) {
+            ResourceQueue resourceQueue = resourceQueues.computeIfAbsent(resourceDesc, ResourceQueue::new);
+            int pending = resourceQueue.tryIncrementPending();
+            if (pending == ResourceQueue.DRAINED) {
+                resourceQueues.remove(resourceDesc, resourceQueue);
+                continue;
+            }
+            resourceQueue.waitingTasks.offer(pendingTask);
+            if (pending == 0) {
+                resourceQueue.schedule();
+            }
+            return pendingTask.result;
+        }
+    }
+
+    private static void complete(List<PendingTask<?, ?>> batch, Throwable exception) {
+        for (PendingTask<?, ?> pendingTask : batch) {
+            if (exception == null) {
+                pendingTask.result.complete(null);
+            } else {
+                pendingTask.result.completeExceptionally(exception);
+            }
+        }
+    }
+
+    private static Throwable combine(Throwable taskExecutionException, Throwable closingResourceException) {
+        if (closingResourceException == null) {
+            return taskExecutionException;
+        }
+        if (taskExecutionException != null) {
+            closingResourceException.addSuppressed(taskExecutionException);
+        }
+        return closingResourceException;
+    }
+
+    private static RuntimeException unwrap(CompletionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return ex;
+    }
+
+    /**
+     * Queue of the tasks waiting for the Resource with the same discriminator value (multiple producers, single consumer).
+     * Counter of pending tasks is incremented by the producers before the task is queued. Producer that increments it
+     * from zero schedules the drain. The counter never drops back to zero - the worker switches it to {@link #DRAINED}
+     * instead, so the queue can't be reused after the worker has finished with it.
+     * Resource itself is accessed only by the single worker.
+     */
+    private class ResourceQueue implements Runnable {
+        private static final int DRAINED = -1;
+
+        private final RESOURCE_DISC resourceDesc;
+        private final Queue<PendingTask<RESOURCE_DISC, RESOURCE>> waitingTasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private RESOURCE resource;
+        private boolean opened;
+
+        public ResourceQueue(RESOURCE_DISC resourceDesc) {
+            this.resourceDesc = resourceDesc;
+        }
+
+        /**
+         * @return number of pending tasks before the increment, or {@link #DRAINED}
+         */
+        public int tryIncrementPending() {
+            int current;
+            do {
+                current = pending.get();
+                if (current == DRAINED) {
+                    return DRAINED;
+                }
+            } while (!pending.compareAndSet(current, current + 1));
+            return current;
+        }
+
+        /**
+         * Rejected queue is drained by the calling thread in a loop, not recursively,
+         * so that the executor rejecting it over and over again doesn't overflow the stack.
+         */
+        public void schedule() {
+            while (true) {
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException ex) {
+                    if (!drain(ex)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            if (drain(null)) {
+                schedule();
+            }
+        }
+
+        /**
+         * Drains the queue. Resource is opened lazily by the first task and closed after the last one.
+         * @param rejection rejection of this drain by the executor to complete the tasks with, or null to execute them
+         * @return true if there are still tasks to be drained
+         */
+        private boolean drain(RejectedExecutionException rejection) {
+            for (int executed = 0; executed < MAX_TASKS_PER_DRAIN; ) {
+                List<PendingTask<?, ?>> batch = new ArrayList<>();
+                List<TaskOnResource<RESOURCE_DISC, RESOURCE>> tasks = new ArrayList<>();
+                TaskOnResource<RESOURCE_DISC, RESOURCE> closingTask = pollBatch(batch, tasks, rejection == null);
+                int batchSize = batch.size();
+                executed += batchSize;
+                Throwable taskExecutionException = rejection != null ? rejection : executeTasksOnResource(tasks);
+                if (pending.get() == batchSize) {
+                    Throwable closingResourceException = closeResource(closingTask);
+                    complete(batch, combine(taskExecutionException, closingResourceException));
+                    if (pending.compareAndSet(batchSize, DRAINED)) {
+                        resourceQueues.remove(resourceDesc, this);
+                        return false;
+                    }
+                } else {
+                    complete(batch, taskExecutionException);
+                }
+                pending.addAndGet(-batchSize);
+            }
+            return true;
+        }
+
+        /**
+         * Takes all the pending tasks up to the max batch size, lingering for more tasks if needed.
+         * Cancelled tasks are part of the batch, but they are not executed.
+         * @param linger false if the batch is not going to be executed, so there is no point in waiting for more tasks
+         * @return any task of the batch, to close the Resource with
+         */
+        private TaskOnResource<RESOURCE_DISC, RESOURCE> pollBatch(List<PendingTask<?, ?>> batch, List<TaskOnResource<RESOURCE_DISC, RESOURCE>> tasks,
+                                                                  boolean linger) {
+            TaskOnResource<RESOURCE_DISC, RESOURCE> anyTask = null;
+            long lingerDeadline = maxLingerNanos > 0 ? System.nanoTime() + maxLingerNanos : 0;
+            do {
+                int available = Math.min(pending.get(), maxBatchSize);
+                while (batch.size() < available) {
+                    PendingTask<RESOURCE_DISC, RESOURCE> pendingTask = pollNext();
+                    batch.add(pendingTask);
+                    anyTask = pendingTask.task;
+                    if (!pendingTask.result.isCancelled()) {
+                        tasks.add(pendingTask.task);
+                    }
+                }
+                if (batch.size() >= maxBatchSize || maxLingerNanos == 0 || !linger) {
+                    return anyTask;
+                }
+                LockSupport.parkNanos(LINGER_PARK_NANOS);
+            } while (System.nanoTime() - lingerDeadline < 0);
+            return anyTask;
+        }
+
+        /**
+         * Producer increments the counter before queueing the task, so the task may be still on it's way.
+         */
+        private PendingTask<RESOURCE_DISC, RESOURCE> pollNext() {
+            PendingTask<RESOURCE_DISC, RESOURCE> pendingTask;
+            while ((pendingTask = waitingTasks.poll()) == null) {
+                Thread.yield();
+            }
+            return pendingTask;
+        }
+
+        private Throwable executeTasksOnResource(List<TaskOnResource<RESOURCE_DISC, RESOURCE>> tasks) {
+            if (tasks.isEmpty()) {
+                return null;
+            }
+            TaskOnResource<RESOURCE_DISC, RESOURCE> firstTask = tasks.get(0);
+            try {
+                if (!opened) {
+                    resource = firstTask.openResource();
+                    opened = true;
+                }
+                if (tasks.size() == 1) {
+                    firstTask.executeOn(resource);
+                } else {
+                    firstTask.executeBatchOn(resource, tasks);
+                }
+                return null;
+            } catch (Throwable ex) {
+                return ex;
+            }
+        }
+
+        private Throwable closeResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+            if (!opened) {
+                return null;
+            }
+            try {
+                task.closeResource(resource);
+                return null;
+            } catch (Throwable ex) {
+                return ex;
+            } finally {
+                resource = null;
+                opened = false;
+            }
+        }
+    }
+
+    private static class PendingTask<RESOURCE_DISC, RESOURCE> {
+        private final TaskOnResource<RESOURCE_DISC, RESOURCE> task;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        public PendingTask(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+            this.task = task;
+        }
+    }
+}
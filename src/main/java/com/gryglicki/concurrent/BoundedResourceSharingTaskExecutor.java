@@ -0,0 +1,176 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+/**
+ * Decorator of the {@link ResourceSharingTaskExecutor} limiting number of in-flight tasks
+ * (waiting for the Resource or being executed on it), both per Resource discriminator value and globally.
+ * Task that exceeds any of the limits is handled according to the {@link OverflowPolicy}.
+ */
+@ThreadSafe
+public class BoundedResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> implements ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> {
+    private final ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> delegate;
+    private final ConcurrentMap<RESOURCE_DISC, ResourcePermits> resourcePermits = new ConcurrentHashMap<>();
+    private final Semaphore globalPermits;
+    private final int maxInFlightPerResource;
+    private final OverflowPolicy overflowPolicy;
+    private final long timeoutNanos;
+
+    /**
+     * Creates executor that doesn't wait for the free slot.
+     * @param delegate executor that actually executes the tasks
+     * @param maxInFlightPerResource max number of in-flight tasks per Resource discriminator value
+     * @param maxInFlight max number of in-flight tasks in total
+     * @param overflowPolicy {@link OverflowPolicy#REJECT} or {@link OverflowPolicy#CALLER_RUNS}
+     */
+    public BoundedResourceSharingTaskExecutor(ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> delegate,
+                                              int maxInFlightPerResource, int maxInFlight, OverflowPolicy overflowPolicy) {
+        this(delegate, maxInFlightPerResource, maxInFlight, overflowPolicy, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param delegate executor that actually executes the tasks
+     * @param maxInFlightPerResource max number of in-flight tasks per Resource discriminator value
+     * @param maxInFlight max number of in-flight tasks in total
+     * @param overflowPolicy what to do with the task exceeding the limits
+     * @param timeout max time to wait for the free slot with {@link OverflowPolicy#BLOCK}
+     * @param unit time unit of the timeout
+     */
+    public BoundedResourceSharingTaskExecutor(ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> delegate,
+                                              int maxInFlightPerResource, int maxInFlight, OverflowPolicy overflowPolicy,
+                                              long timeout, TimeUnit unit) {
+        if (maxInFlightPerResource < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("In-flight limits must be positive: " + maxInFlightPerResource + ", " + maxInFlight);
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+        }
+        this.delegate = requireNonNull(delegate);
+        this.globalPermits = new Semaphore(maxInFlight);
+        this.maxInFlightPerResource = maxInFlightPerResource;
+        this.overflowPolicy = requireNonNull(overflowPolicy);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Executes given task with the delegate if it doesn't exceed the limits.
+     * @param task task to be executed
+     * @throws ResourceOverloadedException if the task exceeds the limits
+     */
+    public void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        ResourcePermits permits = acquirePermits(task.getResourceDiscriminator(), true);
+        try {
+            delegate.execute(task);
+        } finally {
+            releasePermits(task.getResourceDiscriminator(), permits);
+        }
+    }
+
+    /**
+     * Executes given task asynchronously with the delegate if it doesn't exceed the limits.
+     * The delegate's future is returned as it is, so that cancelling it reaches the delegate,
+     * and the slot is freed as soon as it's completed or cancelled.
+     * @param task task to be executed
+     * @return future of the task execution, with {@link OverflowPolicy#CALLER_RUNS} already completed if the limits are exceeded
+     * @throws ResourceOverloadedException if the task exceeds the limits
+     */
+    public CompletableFuture<Void> executeAsync(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        RESOURCE_DISC resourceDesc = task.getResourceDiscriminator();
+        ResourcePermits permits = acquirePermits(resourceDesc, false);
+        if (permits == null) {
+            return runByCaller(task);
+        }
+        CompletableFuture<Void> result;
+        try {
+            result = delegate.executeAsync(task);
+        } catch (RuntimeException ex) {
+            releasePermits(resourceDesc, permits);
+            throw ex;
+        }
+        result.whenComplete((ignored, ex) -> releasePermits(resourceDesc, permits));
+        return result;
+    }
+
+    private CompletableFuture<Void> runByCaller(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            delegate.execute(task);
+            result.complete(null);
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * @return acquired permits or null if the task should be run by the caller
+     */
+    private ResourcePermits acquirePermits(RESOURCE_DISC resourceDesc, boolean synchronous) {
+        ResourcePermits permits = resourcePermits.compute(resourceDesc, (disc, current) -> {
+            ResourcePermits resourcePermits = current != null ? current : new ResourcePermits(maxInFlightPerResource);
+            resourcePermits.users++;
+            return resourcePermits;
+        });
+        boolean acquired = false;
+        try {
+            long deadline = System.nanoTime() + timeoutNanos;
+            if (tryAcquire(permits.semaphore, deadline, synchronous)) {
+                if (tryAcquire(globalPermits, deadline, synchronous)) {
+                    acquired = true;
+                    return permits;
+                }
+                permits.semaphore.release();
+            }
+        } finally {
+            if (!acquired) {
+                removeUser(resourceDesc, permits);
+            }
+        }
+        if (overflowPolicy == OverflowPolicy.CALLER_RUNS && !synchronous) {
+            return null;
+        }
+        throw new ResourceOverloadedException("Too many in-flight tasks for the Resource: " + resourceDesc);
+    }
+
+    private boolean tryAcquire(Semaphore semaphore, long deadline, boolean synchronous) {
+        if (overflowPolicy == OverflowPolicy.REJECT || (overflowPolicy == OverflowPolicy.CALLER_RUNS && !synchronous)) {
+            return semaphore.tryAcquire();
+        }
+        try {
+            return semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ResourceOverloadedException("Interrupted while waiting for the free slot", ex);
+        }
+    }
+
+    private void releasePermits(RESOURCE_DISC resourceDesc, ResourcePermits permits) {
+        globalPermits.release();
+        permits.semaphore.release();
+        removeUser(resourceDesc, permits);
+    }
+
+    private void removeUser(RESOURCE_DISC resourceDesc, ResourcePermits permits) {
+        resourcePermits.computeIfPresent(resourceDesc, (disc, current) -> --permits.users == 0 ? null : current);
+    }
+
+    /**
+     * Permits of the single Resource. Number of users is modified only inside {@link ConcurrentMap#compute},
+     * so the permits are removed from the map when nobody uses them.
+     */
+    private static class ResourcePermits {
+        private final Semaphore semaphore;
+        private int users;
+
+        public ResourcePermits(int maxInFlight) {
+            this.semaphore = new Semaphore(maxInFlight);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+/**
+ * File Resource appending to the {@link FileChannel} through the direct {@link ByteBuffer} (write-behind buffer).
+ * Appended data is written to the file when the buffer is full, when the oldest buffered data is older than
+ * the max flush delay (checked on append) and when the appender is closed. Shared by many tasks it turns
+ * lots of tiny appends into a few large sequential writes.
+ *
+ * Access has to be synchronized by the caller, e.g. by the {@link ResourceSharingTaskExecutor}.
+ * {@link IOException}s are rethrown as {@link UncheckedIOException}s.
+ */
+@NotThreadSafe
+public class BufferedFileAppender implements Appendable, AutoCloseable {
+    /**
+     * Encoded character must always fit into the empty buffer. UTF-8 encodes a single char with up to 3 bytes,
+     * but the surrogate pair is encoded at once as a 4 bytes sequence.
+     */
+    static final int MIN_BUFFER_SIZE = Math.max((int) Math.ceil(StandardCharsets.UTF_8.newEncoder().maxBytesPerChar()), 4);
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final long maxFlushDelayNanos;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long oldestBufferedNanos;
+
+    private BufferedFileAppender(FileChannel channel, int bufferSize, long maxFlushDelayNanos) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.maxFlushDelayNanos = maxFlushDelayNanos;
+    }
+
+    /**
+     * Opens (or creates) the file for appending.
+     * @param file file to append to
+     * @param bufferSize size of the write-behind buffer in bytes, at least 4 so that any encoded character fits into it
+     * @param maxFlushDelay max time the appended data is kept in the buffer
+     * @param unit time unit of the maxFlushDelay
+     */
+    public static BufferedFileAppender open(Path file, int bufferSize, long maxFlushDelay, TimeUnit unit) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("bufferSize must be at least " + MIN_BUFFER_SIZE + ": " + bufferSize);
+        }
+        if (maxFlushDelay < 0) {
+            throw new IllegalArgumentException("maxFlushDelay must not be negative: " + maxFlushDelay);
+        }
+        try {
+            return new BufferedFileAppender(FileChannel.open(file, CREATE, WRITE, APPEND), bufferSize, unit.toNanos(maxFlushDelay));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends given bytes, writing them directly to the file if they don't fit into the empty buffer.
+     */
+    public BufferedFileAppender append(byte[] bytes) {
+        markBuffered();
+        if (bytes.length > buffer.remaining()) {
+            flush();
+            if (bytes.length > buffer.capacity()) {
+                write(ByteBuffer.wrap(bytes));
+                return this;
+            }
+            markBuffered();
+        }
+        buffer.put(bytes);
+        flushIfExpired();
+        return this;
+    }
+
+    /**
+     * Appends given characters encoded with UTF-8.
+     */
+    @Override
+    public BufferedFileAppender append(CharSequence chars, int start, int end) {
+        return append(chars.subSequence(start, end));
+    }
+
+    /**
+     * Appends given character encoded with UTF-8.
+     */
+    @Override
+    public BufferedFileAppender append(char c) {
+        return append(String.valueOf(c));
+    }
+
+    /**
+     * Appends given characters encoded with UTF-8.
+     */
+    @Override
+    public BufferedFileAppender append(CharSequence chars) {
+        markBuffered();
+        CharBuffer charBuffer = CharBuffer.wrap(chars);
+        encoder.reset();
+        while (encoder.encode(charBuffer, buffer, true).isOverflow()) {
+            flushOnOverflow();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            flushOnOverflow();
+        }
+        flushIfExpired();
+        return this;
+    }
+
+    /**
+     * Writes all the buffered data to the file.
+     */
+    public void flush() {
+        buffer.flip();
+        try {
+            write(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Flushes the buffer and closes the file.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Fails instead of looping forever if flushing can't free any space.
+     */
+    private void flushOnOverflow() {
+        if (buffer.position() == 0) {
+            throw new IllegalStateException("Encoded character doesn't fit into the buffer of " + buffer.capacity() + " bytes");
+        }
+        flush();
+        markBuffered();
+    }
+
+    private void markBuffered() {
+        if (buffer.position() == 0) {
+            oldestBufferedNanos = System.nanoTime();
+        }
+    }
+
+    private void flushIfExpired() {
+        if (buffer.position() > 0 && System.nanoTime() - oldestBufferedNanos >= maxFlushDelayNanos) {
+            flush();
+        }
+    }
+
+    private void write(ByteBuffer bytes) {
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
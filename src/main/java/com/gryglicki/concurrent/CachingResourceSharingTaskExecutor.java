@@ -0,0 +1,336 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+/**
+ * Implementation of {@link ResourceSharingTaskExecutor} that keeps Resources open after the last task released them.
+ * Released Resources are kept in the idle pool and reused by the following tasks, so steady stream of tasks
+ * on the same Resource doesn't open and close it over and over again.
+ *
+ * Idle Resources are closed (on the background thread, with {@link TaskOnResource#closeResource} of the task that
+ * released it last) when they stay idle longer than the idle timeout, or when the number of open Resources exceeds
+ * the max open Resources - least recently used idle Resources are evicted first. Resources in use are never evicted,
+ * so the max open Resources can be exceeded when there are more Resources in use at the same time, until enough
+ * of them are released. Resources are closed by the releasing thread when the background executor rejects closing.
+ *
+ * Exceptions thrown while closing the Resource are passed to the uncaught exception handler of the closing thread.
+ */
+@ThreadSafe
+public class CachingResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> implements ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE>, AutoCloseable {
+    private final ConcurrentMap<RESOURCE_DISC, CachedResource> openResources = new ConcurrentHashMap<>();
+    @GuardedBy("itself")
+    private final Map<RESOURCE_DISC, CachedResource> idleResources = new LinkedHashMap<>();
+    private final AtomicInteger openResourcesCount = new AtomicInteger();
+    private final AtomicInteger evictedResourcesCount = new AtomicInteger();
+    private final int maxOpenResources;
+    private final long idleTimeoutNanos;
+    private final ScheduledExecutorService closingExecutor;
+    private final boolean ownClosingExecutor;
+    private final ScheduledFuture<?> expiredResourcesSweep;
+    private volatile boolean shutdown;
+
+    /**
+     * Creates executor with it's own background thread for closing of the Resources.
+     * @param maxOpenResources max number of open Resources
+     * @param idleTimeout time after which idle Resource is closed
+     * @param unit time unit of the idleTimeout
+     */
+    public CachingResourceSharingTaskExecutor(int maxOpenResources, long idleTimeout, TimeUnit unit) {
+        this(maxOpenResources, idleTimeout, unit, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "resource-closing");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * @param maxOpenResources max number of open Resources
+     * @param idleTimeout time after which idle Resource is closed
+     * @param unit time unit of the idleTimeout
+     * @param closingExecutor executor used for closing of the Resources and looking for the expired ones
+     */
+    public CachingResourceSharingTaskExecutor(int maxOpenResources, long idleTimeout, TimeUnit unit, ScheduledExecutorService closingExecutor) {
+        this(maxOpenResources, idleTimeout, unit, closingExecutor, false);
+    }
+
+    private CachingResourceSharingTaskExecutor(int maxOpenResources, long idleTimeout, TimeUnit unit, ScheduledExecutorService closingExecutor, boolean ownClosingExecutor) {
+        if (maxOpenResources < 1) {
+            throw new IllegalArgumentException("maxOpenResources must be positive: " + maxOpenResources);
+        }
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("idleTimeout must be positive: " + idleTimeout);
+        }
+        this.maxOpenResources = maxOpenResources;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.closingExecutor = requireNonNull(closingExecutor);
+        this.ownClosingExecutor = ownClosingExecutor;
+        long sweepPeriodNanos = Math.max(idleTimeoutNanos / 2, 1);
+        this.expiredResourcesSweep = closingExecutor.scheduleWithFixedDelay(this::evictExpiredResources, sweepPeriodNanos, sweepPeriodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Executes give task with this resource sharing executor.
+     * Sharing of the Resource works the same way as in {@link ConcurrentResourceSharingTaskExecutor#execute},
+     * but the Resource is not closed after the execution.
+     * @param task task to be executed
+     * @throws RejectedExecutionException if this executor is already closed
+     */
+    public void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor is closed");
+        }
+        CachedResource cachedResource = acquireCachedResource(task.getResourceDiscriminator());
+        try {
+            RESOURCE resource = getOrOpenResource(task, cachedResource);
+            synchronized (resource) {
+                task.executeOn(resource);
+            }
+        } finally {
+            releaseCachedResource(task, cachedResource);
+        }
+    }
+
+    /**
+     * @return number of currently open Resources (both in use and idle)
+     */
+    public int getOpenResourcesCount() {
+        return openResourcesCount.get();
+    }
+
+    /**
+     * Closes all idle Resources and stops looking for the expired ones. New tasks are rejected from now on.
+     * Resources that are still in use are closed when released, by the releasing thread.
+     */
+    @Override
+    public void close() {
+        synchronized (idleResources) {
+            shutdown = true;
+        }
+        expiredResourcesSweep.cancel(false);
+        for (CachedResource cachedResource : pollIdleResources(Integer.MAX_VALUE, Long.MAX_VALUE)) {
+            if (cachedResource.tryEvict()) {
+                cachedResource.closeNow();
+            }
+        }
+        if (ownClosingExecutor) {
+            closingExecutor.shutdown();
+        }
+    }
+
+    private CachedResource acquireCachedResource(RESOURCE_DISC resourceDesc) {
+        CachedResource cachedResource = openResources.compute(resourceDesc, (disc, current) -> {
+            if (current != null && current.tryIncrementCounter()) {
+                return current;
+            }
+            return new CachedResource(disc, current);
+        });
+        synchronized (idleResources) {
+            idleResources.remove(resourceDesc, cachedResource);
+        }
+        return cachedResource;
+    }
+
+    /**
+     * First task opens the Resource (see {@link ResourceOpening#open}), all the others wait for the result of this opening.
+     */
+    private RESOURCE getOrOpenResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, CachedResource cachedResource) {
+        if (cachedResource.tryClaimOpening()) {
+            cachedResource.awaitPreviousClosed();
+            ResourceOpening.open(task, cachedResource.opened);
+            openResourcesCount.incrementAndGet();
+            evictResourcesOverLimit();
+        }
+        try {
+            return cachedResource.opened.join();
+        } catch (CompletionException ex) {
+            throw ResourceOpening.rethrown(ex.getCause());
+        }
+    }
+
+    /**
+     * Last task that releases the Resource puts it into the idle pool, or closes it right away once this executor
+     * is closed. Resource that failed to open is just forgotten.
+     */
+    private void releaseCachedResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, CachedResource cachedResource) {
+        boolean[] closeNow = new boolean[1];
+        openResources.computeIfPresent(task.getResourceDiscriminator(), (resourceDesc, current) -> {
+            cachedResource.closingTask = task;
+            if (cachedResource.decrementCounterAndCompareToZero()) {
+                if (!cachedResource.isOpened()) {
+                    cachedResource.evicted = true;
+                    cachedResource.closed.complete(null);
+                    return current == cachedResource ? null : current;
+                }
+                cachedResource.lastReleasedNanos = System.nanoTime();
+                synchronized (idleResources) {
+                    if (shutdown) {
+                        cachedResource.markEvicted();
+                        closeNow[0] = true;
+                    } else {
+                        idleResources.put(resourceDesc, cachedResource);
+                    }
+                }
+            }
+            return current;
+        });
+        if (closeNow[0]) {
+            cachedResource.closeNow();
+        } else {
+            evictResourcesOverLimit();
+        }
+    }
+
+    /**
+     * Max open Resources is checked both when the Resource is opened and released, as it could be exceeded
+     * by the Resources in use. Resources already evicted, but not closed yet, are not counted.
+     */
+    private void evictResourcesOverLimit() {
+        int overLimit = openResourcesCount.get() - evictedResourcesCount.get() - maxOpenResources;
+        if (overLimit > 0) {
+            evictLeastRecentlyUsedResources(overLimit);
+        }
+    }
+
+    private void evictExpiredResources() {
+        evictIdleResources(Integer.MAX_VALUE, System.nanoTime() - idleTimeoutNanos);
+    }
+
+    private void evictLeastRecentlyUsedResources(int count) {
+        evictIdleResources(count, Long.MAX_VALUE);
+    }
+
+    private void evictIdleResources(int count, long releasedBeforeNanos) {
+        for (CachedResource cachedResource : pollIdleResources(count, releasedBeforeNanos)) {
+            if (cachedResource.tryEvict()) {
+                closeInBackground(cachedResource);
+            }
+        }
+    }
+
+    private void closeInBackground(CachedResource cachedResource) {
+        try {
+            closingExecutor.execute(cachedResource::closeNow);
+        } catch (RejectedExecutionException ex) {
+            cachedResource.closeNow();
+        }
+    }
+
+    private List<CachedResource> pollIdleResources(int count, long releasedBeforeNanos) {
+        List<CachedResource> polled = new ArrayList<>();
+        synchronized (idleResources) {
+            Iterator<CachedResource> iterator = idleResources.values().iterator();
+            while (polled.size() < count && iterator.hasNext()) {
+                CachedResource cachedResource = iterator.next();
+                if (releasedBeforeNanos != Long.MAX_VALUE && cachedResource.lastReleasedNanos - releasedBeforeNanos > 0) {
+                    break;
+                }
+                iterator.remove();
+                polled.add(cachedResource);
+            }
+        }
+        return polled;
+    }
+
+    /**
+     * Open Resource with the counter of tasks using it.
+     * Counter is modified only inside {@link ConcurrentMap#compute} for the Resource discriminator value.
+     * Evicted instance stays in the map until it's closed, so that the task reopening it can wait for the closing.
+     */
+    private class CachedResource {
+        private final RESOURCE_DISC resourceDesc;
+        private final CompletableFuture<RESOURCE> opened = new CompletableFuture<>();
+        private final CompletableFuture<Void> closed = new CompletableFuture<>();
+        private final AtomicBoolean openingClaimed = new AtomicBoolean(false);
+        private volatile CachedResource previous;
+        private int counter = 1;
+        private boolean evicted;
+        private volatile TaskOnResource<RESOURCE_DISC, RESOURCE> closingTask;
+        private volatile long lastReleasedNanos;
+
+        public CachedResource(RESOURCE_DISC resourceDesc, CachedResource previous) {
+            this.resourceDesc = resourceDesc;
+            this.previous = previous;
+        }
+
+        public boolean tryIncrementCounter() {
+            if (evicted) {
+                return false;
+            }
+            counter++;
+            return true;
+        }
+
+        public boolean decrementCounterAndCompareToZero() {
+            return --counter == 0;
+        }
+
+        public boolean tryClaimOpening() {
+            return openingClaimed.compareAndSet(false, true);
+        }
+
+        public void awaitPreviousClosed() {
+            CachedResource previousResource = previous;
+            if (previousResource != null) {
+                previousResource.closed.join();
+                previous = null;
+            }
+        }
+
+        public boolean isOpened() {
+            return opened.isDone() && !opened.isCompletedExceptionally();
+        }
+
+        /**
+         * Resource can be evicted only if no task acquired it since it was put into the idle pool.
+         */
+        public boolean tryEvict() {
+            boolean[] evictedNow = new boolean[1];
+            openResources.computeIfPresent(resourceDesc, (disc, current) -> {
+                if (current == this && counter == 0 && !evicted) {
+                    markEvicted();
+                    evictedNow[0] = true;
+                }
+                return current;
+            });
+            return evictedNow[0];
+        }
+
+        /**
+         * Called inside {@link ConcurrentMap#compute} for the Resource discriminator value, just as the counter.
+         */
+        private void markEvicted() {
+            evicted = true;
+            evictedResourcesCount.incrementAndGet();
+        }
+
+        public void closeNow() {
+            try {
+                ResourceOpening.closeReportingFailure(closingTask, opened.join());
+            } finally {
+                openResourcesCount.decrementAndGet();
+                evictedResourcesCount.decrementAndGet();
+                closed.complete(null);
+                openResources.remove(resourceDesc, this);
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+/**
+ * Implementation of {@link ResourceSharingTaskExecutor} without single global lock.
+ * Opened resources are kept in the {@link ConcurrentHashMap} and all the coordination
+ * (opening, sharing and closing of the Resource) is done per Resource discriminator value,
+ * so tasks operating on different Resources don't contend with each other.
+ *
+ * Opening and closing of the Resource is done outside of any lock. Tasks that arrive while the Resource
+ * is being opened wait only for this single opening to finish. Reopening of the Resource waits
+ * until the previous instance with the same discriminator value is fully closed.
+ *
+ * Access to the Resource is synchronized with the {@link ReentrantReadWriteLock} instead of the Resource's monitor,
+ * and no monitor is held while opening, executing or closing, so tasks can be executed by virtual threads
+ * without pinning their carrier threads. Tasks with {@link AccessMode#SHARED} access are executed on the same Resource
+ * in parallel, only {@link AccessMode#EXCLUSIVE} ones are executed one at a time.
+ *
+ * Optionally Resource can be rotated according to the {@link RotationPolicy}. Rotated Resource is no longer
+ * shared with the new tasks - they open it's replacement right away, while tasks already using it finish their
+ * execution on it and the last of them closes it.
+ *
+ * Waiting for the Resource can be bounded with the timeout and cancelled by interrupting the waiting thread.
+ * Resource whose {@link AccessMode#EXCLUSIVE} task takes too long can be abandoned (and force-closed)
+ * by the tasks waiting for it according to the {@link HungResourcePolicy}.
+ */
+@ThreadSafe
+public class ConcurrentResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> implements ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> {
+    private final ConcurrentMap<RESOURCE_DISC, SharedResource<RESOURCE>> openResources = new ConcurrentHashMap<>();
+    private final RotationPolicy rotationPolicy;
+    private final HungResourcePolicy hungResourcePolicy;
+    private final ResourceSharingListener<RESOURCE_DISC> listener;
+
+    public ConcurrentResourceSharingTaskExecutor() {
+        this(RotationPolicy.never());
+    }
+
+    /**
+     * @param rotationPolicy defines when the Resource in use should be rotated
+     */
+    public ConcurrentResourceSharingTaskExecutor(RotationPolicy rotationPolicy) {
+        this(rotationPolicy, ResourceSharingListener.noOp());
+    }
+
+    /**
+     * @param rotationPolicy defines when the Resource in use should be rotated
+     * @param listener listener notified about opening, reusing and closing of the Resources and execution of the tasks
+     */
+    public ConcurrentResourceSharingTaskExecutor(RotationPolicy rotationPolicy, ResourceSharingListener<RESOURCE_DISC> listener) {
+        this(rotationPolicy, HungResourcePolicy.never(), listener);
+    }
+
+    /**
+     * @param rotationPolicy defines when the Resource in use should be rotated
+     * @param hungResourcePolicy defines what to do with the Resource whose task takes too long
+     * @param listener listener notified about opening, reusing and closing of the Resources and execution of the tasks
+     */
+    public ConcurrentResourceSharingTaskExecutor(RotationPolicy rotationPolicy, HungResourcePolicy hungResourcePolicy,
+                                                 ResourceSharingListener<RESOURCE_DISC> listener) {
+        this.rotationPolicy = requireNonNull(rotationPolicy);
+        this.hungResourcePolicy = requireNonNull(hungResourcePolicy);
+        this.listener = requireNonNull(listener);
+    }
+
+    /**
+     * Executes give task with this resource sharing executor.
+     * Semantics are the same as in {@link SynchronizedResourceSharingTaskExecutor#execute},
+     * but synchronization is done only between the tasks that operates on the Resource
+     * with the same discriminator value.
+     * @param task task to be executed
+     */
+    public void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        execute(task, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Executes give task waiting at most the given time for it's Resource - both for it's opening by another task
+     * and for the access to it. Waiting can be cancelled by interrupting the thread.
+     * @param task task to be executed
+     * @param timeout max time to wait for the Resource
+     * @param unit time unit of the timeout
+     * @throws ResourceTimeoutException if the Resource wasn't available in time
+     * @throws CancellationException if the thread was interrupted while waiting
+     */
+    public void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task, long timeout, TimeUnit unit) {
+        long startNanos = System.nanoTime();
+        long timeoutNanos = unit.toNanos(timeout);
+        while (true) {
+            SharedResource<RESOURCE> sharedResource = acquireSharedResource(task.getResourceDiscriminator());
+            RESOURCE resource;
+            Lock lock = null;
+            long waitStart;
+            try {
+                resource = getOrOpenResource(task, sharedResource, startNanos, timeoutNanos);
+                waitStart = System.nanoTime();
+                lock = lockResource(task, sharedResource, resource, startNanos, timeoutNanos);
+            } finally {
+                if (lock == null) {
+                    releaseSharedResource(task, sharedResource);
+                }
+            }
+            if (lock == null) {
+                continue;
+            }
+            Optional<RuntimeException> taskExecutionException = executeTaskOnResource(task, sharedResource, resource, lock, waitStart);
+            rotateResourceIfNeeded(task, sharedResource);
+            Optional<RuntimeException> closingResourceException = tryCloseResourceAndHandleException(task, sharedResource);
+            throwExceptionIfNeeded(taskExecutionException, closingResourceException);
+            return;
+        }
+    }
+
+    /**
+     * Waits for the access to the Resource, looking for the hung task executed on it in the meantime.
+     * @return acquired lock, or null if the Resource was abandoned and the task should be executed on it's replacement
+     */
+    private Lock lockResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, SharedResource<RESOURCE> sharedResource,
+                              RESOURCE resource, long startNanos, long timeoutNanos) {
+        Lock lock = task.getAccessMode() == AccessMode.SHARED ? sharedResource.lock.readLock() : sharedResource.lock.writeLock();
+        try {
+            while (true) {
+                long remainingNanos = remainingNanos(startNanos, timeoutNanos);
+                if (remainingNanos == Long.MAX_VALUE && hungResourcePolicy.isNever()) {
+                    lock.lockInterruptibly();
+                } else if (!lock.tryLock(Math.min(remainingNanos, sharedResource.nanosUntilHung(hungResourcePolicy)), TimeUnit.NANOSECONDS)) {
+                    if (tryAbandonHungResource(task, sharedResource, resource)) {
+                        return null;
+                    }
+                    if (remainingNanos(startNanos, timeoutNanos) <= 0) {
+                        throw new ResourceTimeoutException("Timed out waiting for the Resource: " + task.getResourceDiscriminator());
+                    }
+                    continue;
+                }
+                if (sharedResource.isAbandoned()) {
+                    lock.unlock();
+                    return null;
+                }
+                return lock;
+            }
+        } catch (InterruptedException ex) {
+            throw cancelled(task);
+        }
+    }
+
+    /**
+     * Only the task that detects the hung Resource abandons it, but all the tasks waiting for it retry on the replacement.
+     */
+    private boolean tryAbandonHungResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, SharedResource<RESOURCE> sharedResource, RESOURCE resource) {
+        if (sharedResource.isAbandoned()) {
+            return true;
+        }
+        if (hungResourcePolicy.isNever() || sharedResource.nanosUntilHung(hungResourcePolicy) > 0 || !sharedResource.tryAbandon()) {
+            return false;
+        }
+        openResources.remove(task.getResourceDiscriminator(), sharedResource);
+        listener.resourceAbandoned(task.getResourceDiscriminator(), System.nanoTime() - sharedResource.executingSinceNanos);
+        if (hungResourcePolicy.isForceClose() && sharedResource.closeClaimed.compareAndSet(false, true)) {
+            long closeStart = System.nanoTime();
+            try {
+                ResourceOpening.closeReportingFailure(task, resource);
+            } finally {
+                listener.resourceClosed(task.getResourceDiscriminator(), System.nanoTime() - closeStart);
+            }
+        }
+        return true;
+    }
+
+    private static long remainingNanos(long startNanos, long timeoutNanos) {
+        return timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : timeoutNanos - (System.nanoTime() - startNanos);
+    }
+
+    private static CancellationException cancelled(TaskOnResource<?, ?> task) {
+        Thread.currentThread().interrupt();
+        return new CancellationException("Interrupted while waiting for the Resource: " + task.getResourceDiscriminator());
+    }
+
+    private Optional<RuntimeException> executeTaskOnResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, SharedResource<RESOURCE> sharedResource,
+                                                             RESOURCE resource, Lock lock, long waitStart) {
+        boolean exclusive = task.getAccessMode() == AccessMode.EXCLUSIVE;
+        try {
+            long executeStart = System.nanoTime();
+            listener.resourceAcquired(task.getResourceDiscriminator(), executeStart - waitStart);
+            if (exclusive) {
+                sharedResource.executingSinceNanos = executeStart;
+                sharedResource.executing = true;
+            }
+            boolean failed = true;
+            try {
+                task.executeOn(resource);
+                failed = false;
+            } finally {
+                listener.taskExecuted(task.getResourceDiscriminator(), System.nanoTime() - executeStart, failed);
+            }
+            return empty();
+        } catch (RuntimeException ex) {
+            return of(ex);
+        } finally {
+            if (exclusive) {
+                sharedResource.executing = false;
+            }
+            lock.unlock();
+        }
+    }
+
+    private Optional<RuntimeException> tryCloseResourceAndHandleException(TaskOnResource<RESOURCE_DISC, RESOURCE> task, SharedResource<RESOURCE> sharedResource) {
+        try {
+            releaseSharedResource(task, sharedResource);
+            return empty();
+        } catch (RuntimeException ex) {
+            return of(ex);
+        }
+    }
+
+    private void throwExceptionIfNeeded(Optional<RuntimeException> taskExecutionException, Optional<RuntimeException> closingResourceException) {
+        if (closingResourceException.isPresent()) {
+            if (taskExecutionException.isPresent()) {
+                closingResourceException.get().addSuppressed(taskExecutionException.get());
+            }
+            throw closingResourceException.get();
+        } else if (taskExecutionException.isPresent()) {
+            throw taskExecutionException.get();
+        }
+    }
+
+    /**
+     * Retains currently open Resource or registers a new, not yet opened, one.
+     * Only registration is done atomically for the given discriminator value - the Resource itself is opened later.
+     */
+    private SharedResource<RESOURCE> acquireSharedResource(RESOURCE_DISC resourceDesc) {
+        SharedResource<RESOURCE> sharedResource = openResources.get(resourceDesc);
+        if (sharedResource != null && sharedResource.tryIncrementCounter()) {
+            return sharedResource;
+        }
+        return openResources.compute(resourceDesc, (disc, current) -> {
+            if (current == null || current.isRotated()) {
+                return new SharedResource<>(null);
+            }
+            return current.tryIncrementCounter() ? current : new SharedResource<>(current);
+        });
+    }
+
+    /**
+     * Each task waits for the previous instance to be closed within it's own timeout. First task that gets here
+     * after that opens the Resource, all the others wait for the result of this opening.
+     */
+    private RESOURCE getOrOpenResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, SharedResource<RESOURCE> sharedResource,
+                                       long startNanos, long timeoutNanos) {
+        try {
+            sharedResource.awaitPreviousClosed(remainingNanos(startNanos, timeoutNanos));
+            if (sharedResource.tryClaimOpening()) {
+                sharedResource.openedAtNanos = System.nanoTime();
+                ResourceOpening.open(task, sharedResource.opened);
+                listener.resourceOpened(task.getResourceDiscriminator(), System.nanoTime() - sharedResource.openedAtNanos);
+            } else {
+                listener.resourceReused(task.getResourceDiscriminator());
+            }
+            long remainingNanos = remainingNanos(startNanos, timeoutNanos);
+            return remainingNanos == Long.MAX_VALUE ? sharedResource.opened.get() : sharedResource.opened.get(remainingNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException ex) {
+            throw ResourceOpening.rethrown(ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new ResourceTimeoutException("Timed out waiting for opening of the Resource: " + task.getResourceDiscriminator());
+        } catch (InterruptedException ex) {
+            throw cancelled(task);
+        }
+    }
+
+    /**
+     * Only the task that detects exceeded limits of the {@link RotationPolicy} unregisters the Resource.
+     */
+    private void rotateResourceIfNeeded(TaskOnResource<RESOURCE_DISC, RESOURCE> task, SharedResource<RESOURCE> sharedResource) {
+        if (rotationPolicy.isNever()) {
+            return;
+        }
+        long executions = sharedResource.executions.incrementAndGet();
+        long weight = sharedResource.weight.addAndGet(rotationPolicy.weightOf(task));
+        if (rotationPolicy.shouldRotate(executions, weight, System.nanoTime() - sharedResource.openedAtNanos)
+                        && sharedResource.rotated.compareAndSet(false, true)) {
+            openResources.remove(task.getResourceDiscriminator(), sharedResource);
+        }
+    }
+
+    /**
+     * Last task that releases the Resource closes it, unless it was already force-closed. The Resource stays
+     * registered until it's closed, so that any task that wants to reopen it would wait for the closing to finish.
+     * Resource that failed to close is reported as closed anyway - it's forgotten by the executor.
+     * Resource never opened because all it's tasks timed out waiting for the previous instance is considered
+     * closed only once the previous instance is, to keep the chain of the instances waiting for each other.
+     */
+    private void releaseSharedResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, SharedResource<RESOURCE> sharedResource) {
+        if (sharedResource.decrementCounterAndCompareToZero()) {
+            try {
+                if (sharedResource.isOpened() && sharedResource.closeClaimed.compareAndSet(false, true)) {
+                    long closeStart = System.nanoTime();
+                    try {
+                        task.closeResource(sharedResource.opened.join());
+                    } finally {
+                        listener.resourceClosed(task.getResourceDiscriminator(), System.nanoTime() - closeStart);
+                    }
+                }
+            } finally {
+                SharedResource<RESOURCE> previousResource = sharedResource.previous;
+                if (previousResource == null) {
+                    markClosed(task.getResourceDiscriminator(), sharedResource);
+                } else {
+                    previousResource.closed.whenComplete((ignored, ex) -> markClosed(task.getResourceDiscriminator(), sharedResource));
+                }
+            }
+        }
+    }
+
+    private void markClosed(RESOURCE_DISC resourceDesc, SharedResource<RESOURCE> sharedResource) {
+        sharedResource.closed.complete(null);
+        openResources.remove(resourceDesc, sharedResource);
+    }
+
+    /**
+     * Resource with the counter of tasks using it.
+     * Once the counter drops to zero this instance can't be reused anymore and a new one has to be registered.
+     */
+    private static class SharedResource<RESOURCE> {
+        private final CompletableFuture<RESOURCE> opened = new CompletableFuture<>();
+        private final CompletableFuture<Void> closed = new CompletableFuture<>();
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final AtomicBoolean openingClaimed = new AtomicBoolean(false);
+        private final AtomicInteger counter = new AtomicInteger(1);
+        private final AtomicBoolean rotated = new AtomicBoolean(false);
+        private final AtomicBoolean abandoned = new AtomicBoolean(false);
+        private final AtomicBoolean closeClaimed = new AtomicBoolean(false);
+        private final AtomicLong executions = new AtomicLong();
+        private final AtomicLong weight = new AtomicLong();
+        private volatile long openedAtNanos;
+        private volatile long executingSinceNanos;
+        private volatile boolean executing;
+        private volatile SharedResource<RESOURCE> previous;
+
+        public SharedResource(SharedResource<RESOURCE> previous) {
+            this.previous = previous;
+        }
+
+        public boolean tryIncrementCounter() {
+            if (rotated.get()) {
+                return false;
+            }
+            int current;
+            do {
+                current = counter.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!counter.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        public boolean decrementCounterAndCompareToZero() {
+            return counter.decrementAndGet() == 0;
+        }
+
+        public boolean tryClaimOpening() {
+            return openingClaimed.compareAndSet(false, true);
+        }
+
+        public void awaitPreviousClosed(long timeoutNanos) throws ExecutionException, TimeoutException, InterruptedException {
+            SharedResource<RESOURCE> previousResource = previous;
+            if (previousResource != null) {
+                if (timeoutNanos == Long.MAX_VALUE) {
+                    previousResource.closed.get();
+                } else {
+                    previousResource.closed.get(timeoutNanos, TimeUnit.NANOSECONDS);
+                }
+                previous = null;
+            }
+        }
+
+        public boolean isOpened() {
+            return opened.isDone() && !opened.isCompletedExceptionally();
+        }
+
+        public boolean isRotated() {
+            return rotated.get();
+        }
+
+        /**
+         * @return time left until the currently executed task is considered hung
+         */
+        public long nanosUntilHung(HungResourcePolicy hungResourcePolicy) {
+            long hungAfterNanos = hungResourcePolicy.getHungAfterNanos();
+            if (!executing) {
+                return hungAfterNanos;
+            }
+            return Math.max(hungAfterNanos - (System.nanoTime() - executingSinceNanos), 0);
+        }
+
+        /**
+         * Abandoned Resource is rotated, so no new task can use it.
+         */
+        public boolean tryAbandon() {
+            if (abandoned.compareAndSet(false, true)) {
+                rotated.set(true);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isAbandoned() {
+            return abandoned.get();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.gryglicki.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static java.util.Objects.requireNonNull;
+/**
+ * Defines how the executor handles failures of the Resource.
+ * Failed opening of the Resource is always reported to all the tasks that were already waiting for it.
+ * Optionally the tasks arriving later get the same failure until the backoff after the failure passes,
+ * and the backoff grows exponentially with the following failures. Optionally an exception thrown by
+ * {@link TaskOnResource#executeOn} can poison the Resource - it's no longer shared with the new tasks,
+ * that reopen it, and it's closed by the last task using it.
+ * Policy is immutable - each method returns the new policy.
+ */
+public final class FailurePolicy {
+    private static final FailurePolicy DEFAULT = new FailurePolicy(0, 0, ex -> false);
+
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Predicate<? super RuntimeException> poisonous;
+
+    private FailurePolicy(long initialBackoffNanos, long maxBackoffNanos, Predicate<? super RuntimeException> poisonous) {
+        this.initialBackoffNanos = initialBackoffNanos;
+        this.maxBackoffNanos = maxBackoffNanos;
+        this.poisonous = poisonous;
+    }
+
+    /**
+     * @return policy without any backoff and poisoning
+     */
+    public static FailurePolicy defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param initialBackoff time after the first failed opening during which the Resource is not opened again
+     * @param maxBackoff max backoff, reached by doubling the backoff after each following failed opening
+     * @param unit time unit of the backoffs
+     */
+    public FailurePolicy withOpenBackoff(long initialBackoff, long maxBackoff, TimeUnit unit) {
+        if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Backoff must be positive and not greater than max backoff: " + initialBackoff + ", " + maxBackoff);
+        }
+        return new FailurePolicy(unit.toNanos(initialBackoff), unit.toNanos(maxBackoff), poisonous);
+    }
+
+    /**
+     * @param poisonous exceptions thrown by {@link TaskOnResource#executeOn} that make the Resource unusable
+     */
+    public FailurePolicy poisonOn(Predicate<? super RuntimeException> poisonous) {
+        return new FailurePolicy(initialBackoffNanos, maxBackoffNanos, requireNonNull(poisonous));
+    }
+
+    long backoffNanos(int consecutiveFailures) {
+        if (initialBackoffNanos == 0) {
+            return 0;
+        }
+        int doublings = Math.min(consecutiveFailures - 1, Long.numberOfLeadingZeros(initialBackoffNanos) - 1);
+        return Math.min(initialBackoffNanos << doublings, maxBackoffNanos);
+    }
+
+    boolean isPoisonous(RuntimeException exception) {
+        return poisonous.test(exception);
+    }
+}
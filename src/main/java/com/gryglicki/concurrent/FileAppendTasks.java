@@ -0,0 +1,64 @@
+package com.gryglicki.concurrent;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+/**
+ * Factory of the ready-made tasks appending to the files through the shared {@link BufferedFileAppender}.
+ * All the tasks created by the same factory open the file with the same buffer settings,
+ * so they can share the Resource in the {@link ResourceSharingTaskExecutor}. The buffer is flushed on size
+ * and time thresholds and when the Resource is closed, e.g. after the last task sharing it.
+ */
+public class FileAppendTasks {
+    private final int bufferSize;
+    private final long maxFlushDelay;
+    private final TimeUnit unit;
+
+    /**
+     * @param bufferSize size of the write-behind buffer in bytes, at least 4
+     * @param maxFlushDelay max time the appended data is kept in the buffer
+     * @param unit time unit of the maxFlushDelay
+     */
+    public FileAppendTasks(int bufferSize, long maxFlushDelay, TimeUnit unit) {
+        if (bufferSize < BufferedFileAppender.MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("bufferSize must be at least " + BufferedFileAppender.MIN_BUFFER_SIZE + ": " + bufferSize);
+        }
+        if (maxFlushDelay < 0) {
+            throw new IllegalArgumentException("maxFlushDelay must not be negative: " + maxFlushDelay);
+        }
+        this.bufferSize = bufferSize;
+        this.maxFlushDelay = maxFlushDelay;
+        this.unit = unit;
+    }
+
+    /**
+     * @param file file to append to, also the Resource discriminator value
+     * @param content characters appended with UTF-8 encoding
+     * @return task appending given content to the file
+     */
+    public TaskOnResource<Path, BufferedFileAppender> appendTask(Path file, CharSequence content) {
+        return builderFor(file)
+                        .withExecuteOn(appender -> appender.append(content))
+                        .build();
+    }
+
+    /**
+     * @param file file to append to, also the Resource discriminator value
+     * @param content bytes appended to the file
+     * @return task appending given content to the file
+     */
+    public TaskOnResource<Path, BufferedFileAppender> appendTask(Path file, byte[] content) {
+        return builderFor(file)
+                        .withExecuteOn(appender -> appender.append(content))
+                        .build();
+    }
+
+    /**
+     * @param file file to append to, also the Resource discriminator value
+     * @return builder with defined opening and closing of the file, only {@link TaskOnResourceBuilder#withExecuteOn} is missing
+     */
+    public TaskOnResourceBuilder<Path, BufferedFileAppender> builderFor(Path file) {
+        return TaskOnResourceBuilder.<Path, BufferedFileAppender>builderWithDiscriminator(file)
+                        .withOpenResource(() -> BufferedFileAppender.open(file, bufferSize, maxFlushDelay, unit))
+                        .withCloseResource(BufferedFileAppender::close);
+    }
+}
@@ -0,0 +1,190 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+/**
+ * Coordinates sharing of the Resources between multiple processes on the same host, e.g. several JVMs writing
+ * to the same local files. Coordinated task acquires the OS-level {@link FileLock} on the lock file of it's Resource
+ * discriminator value before opening the Resource and releases it after closing the Resource.
+ *
+ * Sharing inside the process stays as it is - the lock is held as long as the executor keeps the Resource open,
+ * i.e. while there are tasks waiting for it, so it's acquired once for the whole run of the tasks sharing
+ * the Resource, not for each task. At most one Resource per lock file can be open in the process at a time,
+ * as with {@link SynchronizedResourceSharingTaskExecutor#execute}; opening another one fails.
+ *
+ * Lock is usually acquired while the executor's lock is held (e.g. the global one of the
+ * {@link SynchronizedResourceSharingTaskExecutor}), so waiting for it is always bounded with the timeout -
+ * the lock file held by another process can stall the executor at most that long.
+ */
+@ThreadSafe
+public class FileLockCoordinator<RESOURCE_DISC> {
+    private static final long MIN_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long MAX_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final ConcurrentMap<RESOURCE_DISC, FileLock> heldLocks = new ConcurrentHashMap<>();
+    private final Function<? super RESOURCE_DISC, Path> lockFileOf;
+    private final long timeoutNanos;
+
+    /**
+     * @param lockFileOf lock file of the Resource discriminator value, created if it doesn't exist
+     * @param timeout max time to wait for the lock held by another process
+     * @param unit time unit of the timeout
+     */
+    public FileLockCoordinator(Function<? super RESOURCE_DISC, Path> lockFileOf, long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+        }
+        this.lockFileOf = requireNonNull(lockFileOf);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @param timeout max time to wait for the lock held by another process
+     * @param unit time unit of the timeout
+     * @return coordinator of the tasks on files, e.g. from {@link FileAppendTasks}, locking "name.lock" file next to each file
+     */
+    public static FileLockCoordinator<Path> forFiles(long timeout, TimeUnit unit) {
+        return new FileLockCoordinator<>(file -> file.resolveSibling(file.getFileName() + ".lock"), timeout, unit);
+    }
+
+    /**
+     * @param task task to be coordinated between the processes
+     * @return task that opens and closes the Resource under the lock of it's discriminator value
+     */
+    public <RESOURCE> TaskOnResource<RESOURCE_DISC, RESOURCE> coordinated(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        return new CoordinatedTask<>(requireNonNull(task));
+    }
+
+    private void lock(RESOURCE_DISC resourceDesc) {
+        Path lockFile = lockFileOf.apply(resourceDesc);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = pollLock(channel, lockFile);
+            if (heldLocks.putIfAbsent(resourceDesc, lock) != null) {
+                throw new IllegalStateException("Resource is already open in this process: " + resourceDesc);
+            }
+            channel = null;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can't lock " + lockFile, ex);
+        } catch (OverlappingFileLockException ex) {
+            throw new IllegalStateException("Lock file is already held in this process: " + lockFile, ex);
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    private FileLock pollLock(FileChannel channel, Path lockFile) throws IOException {
+        long startNanos = System.nanoTime();
+        long pollNanos = MIN_POLL_NANOS;
+        FileLock lock;
+        while ((lock = channel.tryLock()) == null) {
+            long remainingNanos = timeoutNanos - (System.nanoTime() - startNanos);
+            if (remainingNanos <= 0) {
+                throw new ResourceTimeoutException("Lock file is held by another process: " + lockFile);
+            }
+            LockSupport.parkNanos(Math.min(pollNanos, remainingNanos));
+            pollNanos = Math.min(pollNanos * 2, MAX_POLL_NANOS);
+        }
+        return lock;
+    }
+
+    /**
+     * Closing the channel releases the lock.
+     */
+    private void unlock(RESOURCE_DISC resourceDesc) {
+        FileLock lock = heldLocks.remove(resourceDesc);
+        if (lock != null) {
+            try {
+                lock.channel().close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Can't unlock " + lockFileOf.apply(resourceDesc), ex);
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already failed, the original exception is more important
+            }
+        }
+    }
+
+    private class CoordinatedTask<RESOURCE> implements TaskOnResource<RESOURCE_DISC, RESOURCE> {
+        private final TaskOnResource<RESOURCE_DISC, RESOURCE> task;
+
+        public CoordinatedTask(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+            this.task = task;
+        }
+
+        @Override
+        public RESOURCE_DISC getResourceDiscriminator() {
+            return task.getResourceDiscriminator();
+        }
+
+        @Override
+        public RESOURCE openResource() {
+            lock(task.getResourceDiscriminator());
+            try {
+                return task.openResource();
+            } catch (Throwable ex) {
+                try {
+                    unlock(task.getResourceDiscriminator());
+                } catch (RuntimeException unlockingException) {
+                    ex.addSuppressed(unlockingException);
+                }
+                throw ex;
+            }
+        }
+
+        /**
+         * Resource is closed before releasing the lock, so the other processes see everything written to it.
+         */
+        @Override
+        public void closeResource(RESOURCE resource) {
+            try {
+                task.closeResource(resource);
+            } finally {
+                unlock(task.getResourceDiscriminator());
+            }
+        }
+
+        @Override
+        public void executeOn(RESOURCE resource) {
+            task.executeOn(resource);
+        }
+
+        @Override
+        public void executeBatchOn(RESOURCE resource, List<? extends TaskOnResource<RESOURCE_DISC, RESOURCE>> tasks) {
+            task.executeBatchOn(resource, tasks);
+        }
+
+        @Override
+        public AccessMode getAccessMode() {
+            return task.getAccessMode();
+        }
+
+        @Override
+        public int getPriority() {
+            return task.getPriority();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.gryglicki.concurrent;
+
+import java.util.concurrent.TimeUnit;
+/**
+ * Defines what to do with the Resource whose {@link TaskOnResource#executeOn} takes too long,
+ * so that tasks waiting for it don't wait behind the hung task forever.
+ * Hung Resource can be abandoned - it's no longer shared with any task and waiting tasks open it's replacement right away,
+ * while the hung task keeps it and closes it when it finishes. Abandoned Resource can be also force-closed right away,
+ * e.g. to unblock the hung task waiting on the socket.
+ */
+public final class HungResourcePolicy {
+    private static final HungResourcePolicy NEVER = new HungResourcePolicy(Long.MAX_VALUE, false);
+
+    private final long hungAfterNanos;
+    private final boolean forceClose;
+
+    private HungResourcePolicy(long hungAfterNanos, boolean forceClose) {
+        this.hungAfterNanos = hungAfterNanos;
+        this.forceClose = forceClose;
+    }
+
+    /**
+     * @return policy that waits for the task executed on the Resource as long as it takes
+     */
+    public static HungResourcePolicy never() {
+        return NEVER;
+    }
+
+    /**
+     * @param hungAfter time of the single execution after which the Resource is abandoned
+     * @param unit time unit of the hungAfter
+     */
+    public static HungResourcePolicy abandonAfter(long hungAfter, TimeUnit unit) {
+        return new HungResourcePolicy(toPositiveNanos(hungAfter, unit), false);
+    }
+
+    /**
+     * @param hungAfter time of the single execution after which the Resource is abandoned and closed
+     * @param unit time unit of the hungAfter
+     */
+    public static HungResourcePolicy forceCloseAfter(long hungAfter, TimeUnit unit) {
+        return new HungResourcePolicy(toPositiveNanos(hungAfter, unit), true);
+    }
+
+    boolean isNever() {
+        return this == NEVER;
+    }
+
+    long getHungAfterNanos() {
+        return hungAfterNanos;
+    }
+
+    boolean isForceClose() {
+        return forceClose;
+    }
+
+    private static long toPositiveNanos(long hungAfter, TimeUnit unit) {
+        if (hungAfter <= 0) {
+            throw new IllegalArgumentException("hungAfter must be positive: " + hungAfter);
+        }
+        return unit.toNanos(hungAfter);
+    }
+}
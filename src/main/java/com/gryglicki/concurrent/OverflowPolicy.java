@@ -0,0 +1,22 @@
+package com.gryglicki.concurrent;
+
+/**
+ * Defines what {@link BoundedResourceSharingTaskExecutor} does with the task that exceeds in-flight limits.
+ */
+public enum OverflowPolicy {
+    /**
+     * Caller waits for the free slot at most the configured timeout,
+     * then {@link ResourceOverloadedException} is thrown.
+     */
+    BLOCK,
+    /**
+     * {@link ResourceOverloadedException} is thrown right away.
+     */
+    REJECT,
+    /**
+     * Asynchronously executed task is executed synchronously by the caller, bypassing the limits,
+     * which slows down the caller instead of queueing more tasks.
+     * Synchronously executed task is already run by the caller, so for it this policy works like {@link #BLOCK}.
+     */
+    CALLER_RUNS
+}
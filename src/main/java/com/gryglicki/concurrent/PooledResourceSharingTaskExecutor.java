@@ -0,0 +1,200 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+/**
+ * Implementation of {@link ResourceSharingTaskExecutor} keeping a pool of up to N Resources per discriminator value,
+ * so that tasks on the same hot Resource (e.g. database connection for the given URL) are executed in parallel.
+ *
+ * Each instance of the Resource is used by one task at a time. Instances are opened lazily - only when there is
+ * no free instance and the pool is not full yet. Released instance is handed over to the task waiting for it,
+ * or closed when nobody waits, so the pool shrinks as the demand drops and all the instances are closed once
+ * the last task has finished. Instances being closed are not counted to the pool size.
+ */
+@ThreadSafe
+public class PooledResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> implements ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> {
+    private final ConcurrentMap<RESOURCE_DISC, ResourcePool> resourcePools = new ConcurrentHashMap<>();
+    private final int maxResourcesPerDiscriminator;
+
+    /**
+     * @param maxResourcesPerDiscriminator max number of open instances of the Resource with the same discriminator value
+     */
+    public PooledResourceSharingTaskExecutor(int maxResourcesPerDiscriminator) {
+        if (maxResourcesPerDiscriminator < 1) {
+            throw new IllegalArgumentException("maxResourcesPerDiscriminator must be positive: " + maxResourcesPerDiscriminator);
+        }
+        this.maxResourcesPerDiscriminator = maxResourcesPerDiscriminator;
+    }
+
+    /**
+     * Executes give task on any free instance of it's Resource.
+     * Semantics are the same as in {@link SynchronizedResourceSharingTaskExecutor#execute},
+     * except that up to N tasks on the same Resource discriminator value are executed at once.
+     * @param task task to be executed
+     */
+    public void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        RESOURCE_DISC resourceDesc = task.getResourceDiscriminator();
+        ResourcePool pool = acquirePool(resourceDesc);
+        try {
+            RESOURCE resource = pool.takeOrOpen(task);
+            Optional<RuntimeException> taskExecutionException = executeTaskOnResourceReleasingOnError(task, pool, resource);
+            Optional<RuntimeException> closingResourceException = releaseAndHandleException(task, pool, resource);
+            throwExceptionIfNeeded(taskExecutionException, closingResourceException);
+        } finally {
+            releasePool(resourceDesc, pool);
+        }
+    }
+
+    /**
+     * Instance is released whatever the task throws, otherwise it's slot in the pool would be lost for good.
+     */
+    private Optional<RuntimeException> executeTaskOnResourceReleasingOnError(TaskOnResource<RESOURCE_DISC, RESOURCE> task,
+                                                                             ResourcePool pool, RESOURCE resource) {
+        try {
+            return executeTaskOnResource(task, resource);
+        } catch (Throwable ex) {
+            try {
+                pool.release(task, resource);
+            } catch (Throwable closingResourceException) {
+                ex.addSuppressed(closingResourceException);
+            }
+            throw ex;
+        }
+    }
+
+    private Optional<RuntimeException> executeTaskOnResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, RESOURCE resource) {
+        try {
+            task.executeOn(resource);
+            return empty();
+        } catch (RuntimeException ex) {
+            return of(ex);
+        }
+    }
+
+    private Optional<RuntimeException> releaseAndHandleException(TaskOnResource<RESOURCE_DISC, RESOURCE> task, ResourcePool pool, RESOURCE resource) {
+        try {
+            pool.release(task, resource);
+            return empty();
+        } catch (RuntimeException ex) {
+            return of(ex);
+        }
+    }
+
+    private void throwExceptionIfNeeded(Optional<RuntimeException> taskExecutionException, Optional<RuntimeException> closingResourceException) {
+        if (closingResourceException.isPresent()) {
+            if (taskExecutionException.isPresent()) {
+                closingResourceException.get().addSuppressed(taskExecutionException.get());
+            }
+            throw closingResourceException.get();
+        } else if (taskExecutionException.isPresent()) {
+            throw taskExecutionException.get();
+        }
+    }
+
+    private ResourcePool acquirePool(RESOURCE_DISC resourceDesc) {
+        return resourcePools.compute(resourceDesc, (disc, current) -> {
+            ResourcePool pool = current != null ? current : new ResourcePool();
+            pool.users++;
+            return pool;
+        });
+    }
+
+    private void releasePool(RESOURCE_DISC resourceDesc, ResourcePool pool) {
+        resourcePools.computeIfPresent(resourceDesc, (disc, current) -> --pool.users == 0 ? null : current);
+    }
+
+    /**
+     * Instances of the Resource with the same discriminator value.
+     * Number of users is modified only inside {@link ConcurrentMap#compute}, so the pool is removed from the map
+     * when nobody uses it. Free instances are kept only for the waiting tasks - there are never more of them
+     * than waiting tasks, so the pool is empty when it's removed.
+     */
+    private class ResourcePool {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        @GuardedBy("lock")
+        private final Deque<RESOURCE> freeResources = new ArrayDeque<>();
+        @GuardedBy("lock")
+        private int openResources;
+        @GuardedBy("lock")
+        private int waiting;
+        private int users;
+
+        /**
+         * Takes free instance, opens a new one if the pool is not full, or waits for any instance to be released.
+         */
+        public RESOURCE takeOrOpen(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+            lock.lock();
+            try {
+                while (true) {
+                    RESOURCE resource = freeResources.poll();
+                    if (resource != null) {
+                        return resource;
+                    }
+                    if (openResources < maxResourcesPerDiscriminator) {
+                        openResources++;
+                        break;
+                    }
+                    waiting++;
+                    try {
+                        available.awaitUninterruptibly();
+                    } finally {
+                        waiting--;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            return open(task);
+        }
+
+        /**
+         * Null instance can't be handed over to the waiting task, so it's rejected as failed opening.
+         * Slot of the failed opening is given back whatever the opening throws.
+         */
+        private RESOURCE open(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+            try {
+                return ResourceOpening.requireOpened(task.openResource(), task.getResourceDiscriminator());
+            } catch (Throwable ex) {
+                lock.lock();
+                try {
+                    openResources--;
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+                throw ex;
+            }
+        }
+
+        /**
+         * Hands the instance over to the waiting task or closes it. Slot is given back before closing,
+         * so it's not lost even if the closing fails.
+         */
+        public void release(TaskOnResource<RESOURCE_DISC, RESOURCE> task, RESOURCE resource) {
+            lock.lock();
+            try {
+                if (freeResources.size() < waiting) {
+                    freeResources.push(resource);
+                    available.signal();
+                    return;
+                }
+                openResources--;
+            } finally {
+                lock.unlock();
+            }
+            task.closeResource(resource);
+        }
+    }
+}
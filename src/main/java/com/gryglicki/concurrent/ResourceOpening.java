@@ -0,0 +1,63 @@
+package com.gryglicki.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Opening and closing of the Resource shared by the executors that complete the opening for the waiting tasks.
+ */
+final class ResourceOpening {
+
+    private ResourceOpening() {
+    }
+
+    /**
+     * Opens the Resource and completes the given opening with it. Opening is completed whatever it throws,
+     * so that the tasks waiting for it never hang. Null Resource is rejected as failed opening,
+     * the same way as in the other executors.
+     * @return opened Resource
+     */
+    static <RESOURCE> RESOURCE open(TaskOnResource<?, RESOURCE> task, CompletableFuture<RESOURCE> opened) {
+        try {
+            RESOURCE resource = requireOpened(task.openResource(), task.getResourceDiscriminator());
+            opened.complete(resource);
+            return resource;
+        } catch (Throwable ex) {
+            opened.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    static <RESOURCE> RESOURCE requireOpened(RESOURCE resource, Object resourceDesc) {
+        if (resource == null) {
+            throw new IllegalStateException("Resource opened as null: " + resourceDesc);
+        }
+        return resource;
+    }
+
+    /**
+     * Closing of the Resource that nobody waits for can only be reported to the uncaught exception handler
+     * of the closing thread.
+     */
+    static <RESOURCE> void closeReportingFailure(TaskOnResource<?, RESOURCE> task, RESOURCE resource) {
+        try {
+            task.closeResource(resource);
+        } catch (RuntimeException ex) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+        }
+    }
+
+    /**
+     * @return unchecked cause of the failed opening to be thrown as it is, checked one wrapped
+     */
+    static RuntimeException rethrown(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new CompletionException(cause);
+    }
+}
@@ -0,0 +1,18 @@
+package com.gryglicki.concurrent;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when the task can't be accepted because too many tasks are already in-flight.
+ */
+public class ResourceOverloadedException extends RejectedExecutionException {
+    private static final long serialVersionUID = 1L;
+
+    public ResourceOverloadedException(String message) {
+        super(message);
+    }
+
+    public ResourceOverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
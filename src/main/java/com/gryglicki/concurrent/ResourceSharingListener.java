@@ -0,0 +1,66 @@
+package com.gryglicki.concurrent;
+
+/**
+ * Listener of the events happening inside of the {@link ResourceSharingTaskExecutor}, e.g. to collect metrics.
+ * All the methods are called synchronously on the hot path of the executor, so they should be fast and must not throw.
+ * All the methods do nothing by default.
+ *
+ * @param <RESOURCE_DISC> resource unique identifier type
+ */
+public interface ResourceSharingListener<RESOURCE_DISC> {
+
+    /**
+     * @return listener that ignores all the events
+     */
+    static <RESOURCE_DISC> ResourceSharingListener<RESOURCE_DISC> noOp() {
+        return new ResourceSharingListener<RESOURCE_DISC>() {};
+    }
+
+    /**
+     * Resource was opened by the task.
+     * @param resourceDesc discriminator of the Resource
+     * @param openNanos time spent in {@link TaskOnResource#openResource}
+     */
+    default void resourceOpened(RESOURCE_DISC resourceDesc, long openNanos) {
+    }
+
+    /**
+     * Task reused Resource already opened by another task.
+     * @param resourceDesc discriminator of the Resource
+     */
+    default void resourceReused(RESOURCE_DISC resourceDesc) {
+    }
+
+    /**
+     * Task got exclusive access to the Resource.
+     * @param resourceDesc discriminator of the Resource
+     * @param waitNanos time spent waiting for other tasks executed on the Resource
+     */
+    default void resourceAcquired(RESOURCE_DISC resourceDesc, long waitNanos) {
+    }
+
+    /**
+     * Task was executed on the Resource.
+     * @param resourceDesc discriminator of the Resource
+     * @param executeNanos time spent in {@link TaskOnResource#executeOn}
+     * @param failed whether {@link TaskOnResource#executeOn} has thrown an exception
+     */
+    default void taskExecuted(RESOURCE_DISC resourceDesc, long executeNanos, boolean failed) {
+    }
+
+    /**
+     * Resource was closed, or it failed to close and it's forgotten by the executor anyway.
+     * @param resourceDesc discriminator of the Resource
+     * @param closeNanos time spent in {@link TaskOnResource#closeResource}
+     */
+    default void resourceClosed(RESOURCE_DISC resourceDesc, long closeNanos) {
+    }
+
+    /**
+     * Resource was abandoned because the task executed on it was hung, see {@link HungResourcePolicy}.
+     * @param resourceDesc discriminator of the Resource
+     * @param executeNanos time the hung task has been executed on the Resource so far
+     */
+    default void resourceAbandoned(RESOURCE_DISC resourceDesc, long executeNanos) {
+    }
+}
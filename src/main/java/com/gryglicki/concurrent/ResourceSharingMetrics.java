@@ -0,0 +1,168 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.ThreadSafe;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * {@link ResourceSharingListener} collecting in-process metrics of the {@link ResourceSharingTaskExecutor},
+ * that can be read directly or exposed with JMX as {@link ResourceSharingMetricsMXBean}.
+ */
+@ThreadSafe
+public class ResourceSharingMetrics<RESOURCE_DISC> implements ResourceSharingListener<RESOURCE_DISC>, ResourceSharingMetricsMXBean {
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder failedExecutions = new LongAdder();
+    private final LatencyHistogram openLatency = new LatencyHistogram();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram executeLatency = new LatencyHistogram();
+    private final LatencyHistogram closeLatency = new LatencyHistogram();
+    private final ConcurrentMap<RESOURCE_DISC, Integer> openPerDiscriminator = new ConcurrentHashMap<>();
+
+    /**
+     * Registers these metrics in the platform MBean server.
+     * @param name object name, e.g. "com.gryglicki.concurrent:type=ResourceSharingMetrics,name=files"
+     * @return registered object name
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public void resourceOpened(RESOURCE_DISC resourceDesc, long openNanos) {
+        opened.increment();
+        openLatency.record(openNanos);
+        openPerDiscriminator.merge(resourceDesc, 1, Integer::sum);
+    }
+
+    @Override
+    public void resourceReused(RESOURCE_DISC resourceDesc) {
+        reused.increment();
+    }
+
+    @Override
+    public void resourceAcquired(RESOURCE_DISC resourceDesc, long waitNanos) {
+        waitTime.record(waitNanos);
+    }
+
+    @Override
+    public void taskExecuted(RESOURCE_DISC resourceDesc, long executeNanos, boolean failed) {
+        executeLatency.record(executeNanos);
+        if (failed) {
+            failedExecutions.increment();
+        }
+    }
+
+    @Override
+    public void resourceClosed(RESOURCE_DISC resourceDesc, long closeNanos) {
+        closed.increment();
+        closeLatency.record(closeNanos);
+        openPerDiscriminator.computeIfPresent(resourceDesc, (disc, count) -> count == 1 ? null : count - 1);
+    }
+
+    public LatencyHistogram getOpenLatency() {
+        return openLatency;
+    }
+
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    public LatencyHistogram getExecuteLatency() {
+        return executeLatency;
+    }
+
+    public LatencyHistogram getCloseLatency() {
+        return closeLatency;
+    }
+
+    @Override
+    public long getOpenedCount() {
+        return opened.sum();
+    }
+
+    @Override
+    public long getReusedCount() {
+        return reused.sum();
+    }
+
+    @Override
+    public double getReuseRatio() {
+        long reusedCount = getReusedCount();
+        long total = reusedCount + getOpenedCount();
+        return total == 0 ? 0 : (double) reusedCount / total;
+    }
+
+    @Override
+    public long getClosedCount() {
+        return closed.sum();
+    }
+
+    @Override
+    public long getCurrentlyOpenCount() {
+        return getOpenedCount() - getClosedCount();
+    }
+
+    @Override
+    public long getFailedExecutionsCount() {
+        return failedExecutions.sum();
+    }
+
+    @Override
+    public long getOpenLatencyP99Nanos() {
+        return openLatency.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getWaitTimeP50Nanos() {
+        return waitTime.getPercentileNanos(50);
+    }
+
+    @Override
+    public long getWaitTimeP99Nanos() {
+        return waitTime.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getExecuteLatencyP50Nanos() {
+        return executeLatency.getPercentileNanos(50);
+    }
+
+    @Override
+    public long getExecuteLatencyP99Nanos() {
+        return executeLatency.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getExecuteLatencyMaxNanos() {
+        return executeLatency.getMaxNanos();
+    }
+
+    @Override
+    public long getCloseLatencyP99Nanos() {
+        return closeLatency.getPercentileNanos(99);
+    }
+
+    @Override
+    public Map<String, Integer> getCurrentlyOpenPerDiscriminator() {
+        Map<String, Integer> result = new HashMap<>();
+        openPerDiscriminator.forEach((resourceDesc, count) -> result.put(String.valueOf(resourceDesc), count));
+        return result;
+    }
+
+    /**
+     * @return number of currently open Resources with given discriminator value
+     */
+    public int getCurrentlyOpen(RESOURCE_DISC resourceDesc) {
+        return openPerDiscriminator.getOrDefault(resourceDesc, 0);
+    }
+}
@@ -0,0 +1,42 @@
+package com.gryglicki.concurrent;
+
+import java.util.Map;
+/**
+ * JMX view of the {@link ResourceSharingMetrics}.
+ */
+public interface ResourceSharingMetricsMXBean {
+
+    long getOpenedCount();
+
+    long getReusedCount();
+
+    /**
+     * @return part of the tasks that reused already opened Resource
+     */
+    double getReuseRatio();
+
+    long getClosedCount();
+
+    long getCurrentlyOpenCount();
+
+    long getFailedExecutionsCount();
+
+    long getOpenLatencyP99Nanos();
+
+    long getWaitTimeP50Nanos();
+
+    long getWaitTimeP99Nanos();
+
+    long getExecuteLatencyP50Nanos();
+
+    long getExecuteLatencyP99Nanos();
+
+    long getExecuteLatencyMaxNanos();
+
+    long getCloseLatencyP99Nanos();
+
+    /**
+     * @return number of currently open Resources per discriminator value
+     */
+    Map<String, Integer> getCurrentlyOpenPerDiscriminator();
+}
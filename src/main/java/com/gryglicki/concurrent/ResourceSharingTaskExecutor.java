@@ -1,5 +1,8 @@
 package com.gryglicki.concurrent;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Task executor that allows to share corresponding Resources between concurrent executed tasks.
  * Each task is declaratively defined to know how to open resource, close resource and execute some task on this resource.
@@ -11,4 +14,17 @@ package com.gryglicki.concurrent;
  */
 public interface ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> {
     void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task);
+
+    /**
+     * Executes given task asynchronously.
+     * By default {@link #execute} is just delegated to the {@link ForkJoinPool#commonPool()},
+     * so the thread from the pool is blocked as long as the task waits for it's Resource.
+     * Implementations can override it to queue tasks waiting for the Resource instead.
+     * @param task task to be executed
+     * @return future completed when the task is executed and the Resource is released,
+     * completed exceptionally with the exception that {@link #execute} would throw
+     */
+    default CompletableFuture<Void> executeAsync(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        return CompletableFuture.runAsync(() -> execute(task));
+    }
 }
@@ -0,0 +1,12 @@
+package com.gryglicki.concurrent;
+
+/**
+ * Thrown when the task didn't get it's Resource within the given timeout.
+ */
+public class ResourceTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ResourceTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package com.gryglicki.concurrent;
+
+/**
+ * Thrown to the tasks that were waiting for the Resource whose opening failed, or that arrived during the backoff
+ * after the failure. The original failure is the cause.
+ */
+public class ResourceUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ResourceUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,78 @@
+package com.gryglicki.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import static java.util.Objects.requireNonNull;
+/**
+ * Defines when the open Resource should be rotated (closed and reopened) even though there are still tasks using it.
+ * Without rotation Resource under the sustained load is never closed, e.g. file is never flushed.
+ * Policy is immutable - each method returns the new policy with the additional limit,
+ * so limits can be combined and the Resource is rotated as soon as any of them is exceeded.
+ */
+public final class RotationPolicy {
+    private static final RotationPolicy NEVER = new RotationPolicy(Long.MAX_VALUE, Long.MAX_VALUE, task -> 0, Long.MAX_VALUE);
+
+    private final long maxExecutions;
+    private final long maxWeight;
+    private final ToLongFunction<? super TaskOnResource<?, ?>> weigher;
+    private final long maxOpenNanos;
+
+    private RotationPolicy(long maxExecutions, long maxWeight, ToLongFunction<? super TaskOnResource<?, ?>> weigher, long maxOpenNanos) {
+        this.maxExecutions = maxExecutions;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.maxOpenNanos = maxOpenNanos;
+    }
+
+    /**
+     * @return policy that never rotates the Resource
+     */
+    public static RotationPolicy never() {
+        return NEVER;
+    }
+
+    /**
+     * @param maxExecutions number of tasks executed on the Resource after which it's rotated
+     */
+    public RotationPolicy afterExecutions(long maxExecutions) {
+        requirePositive(maxExecutions, "maxExecutions");
+        return new RotationPolicy(maxExecutions, maxWeight, weigher, maxOpenNanos);
+    }
+
+    /**
+     * @param maxWeight total weight of the tasks executed on the Resource after which it's rotated
+     * @param weigher weight of the single task, e.g. number of bytes it writes
+     */
+    public RotationPolicy afterWeight(long maxWeight, ToLongFunction<? super TaskOnResource<?, ?>> weigher) {
+        requirePositive(maxWeight, "maxWeight");
+        return new RotationPolicy(maxExecutions, maxWeight, requireNonNull(weigher), maxOpenNanos);
+    }
+
+    /**
+     * @param maxOpenTime time since the Resource was opened after which it's rotated
+     * @param unit time unit of the maxOpenTime
+     */
+    public RotationPolicy afterOpenFor(long maxOpenTime, TimeUnit unit) {
+        requirePositive(maxOpenTime, "maxOpenTime");
+        return new RotationPolicy(maxExecutions, maxWeight, weigher, unit.toNanos(maxOpenTime));
+    }
+
+    boolean isNever() {
+        return this == NEVER;
+    }
+
+    long weightOf(TaskOnResource<?, ?> task) {
+        return weigher.applyAsLong(task);
+    }
+
+    boolean shouldRotate(long executions, long weight, long openForNanos) {
+        return executions >= maxExecutions || weight >= maxWeight || openForNanos >= maxOpenNanos;
+    }
+
+    private static void requirePositive(long value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.gryglicki.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines order in which the tasks waiting for the same Resource get access to it.
+ * Without scheduling the order is not defined, as with any Java monitor, so the single task can wait
+ * behind any number of the tasks arriving after it.
+ * Scheduled tasks are ordered by the {@link TaskOnResource#getPriority} raised by one for each aging period
+ * the task has waited, so that the low priority task is not starved by the stream of high priority ones.
+ * Tasks with the same effective priority are executed in arrival order. The Resource is handed over directly
+ * to the next task, so the task arriving when the Resource is just released can't barge in before the waiting ones.
+ */
+public final class SchedulingPolicy {
+    private static final SchedulingPolicy UNORDERED = new SchedulingPolicy(false, 0);
+    private static final SchedulingPolicy FAIR = new SchedulingPolicy(true, 0);
+
+    private final boolean scheduled;
+    private final long agingNanos;
+
+    private SchedulingPolicy(boolean scheduled, long agingNanos) {
+        this.scheduled = scheduled;
+        this.agingNanos = agingNanos;
+    }
+
+    /**
+     * @return policy without any ordering of the waiting tasks, cheapest one
+     */
+    public static SchedulingPolicy unordered() {
+        return UNORDERED;
+    }
+
+    /**
+     * @return policy executing the waiting tasks in arrival order, ignoring their priorities
+     */
+    public static SchedulingPolicy fair() {
+        return FAIR;
+    }
+
+    /**
+     * Priorities should be kept small, so that the priority multiplied by the aging period in nanoseconds doesn't overflow.
+     * @param agingPeriod time of waiting after which effective priority of the task is raised by one
+     * @param unit time unit of the aging period
+     * @return policy executing the waiting tasks by their priority with aging
+     */
+    public static SchedulingPolicy byPriority(long agingPeriod, TimeUnit unit) {
+        if (agingPeriod <= 0) {
+            throw new IllegalArgumentException("agingPeriod must be positive: " + agingPeriod);
+        }
+        return new SchedulingPolicy(true, unit.toNanos(agingPeriod));
+    }
+
+    boolean isScheduled() {
+        return scheduled;
+    }
+
+    /**
+     * Effective priority at time t is priority + (t - arrival) / aging, so comparing it between two waiting tasks
+     * doesn't depend on t and the key can be computed once, on arrival.
+     * @return key of the waiting task, higher key is executed first
+     */
+    long schedulingKey(int priority, long arrivalNanos) {
+        return agingNanos == 0 ? -arrivalNanos : priority * agingNanos - arrivalNanos;
+    }
+}
@@ -0,0 +1,264 @@
+package com.gryglicki.concurrent;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+/**
+ * Implementation of {@link ResourceSharingTaskExecutor} without any locks, with affinity of the Resource to the thread.
+ * Resource discriminator value is hashed to one of N shards. Each shard has it's own thread, that is the only one
+ * accessing it's open Resources, so tasks on the same Resource are naturally executed one at a time and the Resource
+ * stays in the cache of a single core. Tasks are passed to the shard through the bounded lock-free ring buffer -
+ * submitting thread spins (and then parks) while the buffer is full.
+ *
+ * Shard keeps the Resource open as long as it has any pending tasks for it, and closes it after the last of them.
+ * Exception thrown while closing the Resource is reported to the last task executed on it.
+ *
+ * Tasks must not wait for other tasks executed by this executor, as they could be assigned to the same shard.
+ */
+@ThreadSafe
+public class ShardedResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> implements ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE>, AutoCloseable {
+    private static final long FULL_BUFFER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final List<Shard> shards;
+    private final AtomicInteger submitting = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Creates executor with the shard per available processor.
+     * @param bufferCapacity capacity of the buffer of incoming tasks of each shard
+     */
+    public ShardedResourceSharingTaskExecutor(int bufferCapacity) {
+        this(Runtime.getRuntime().availableProcessors(), bufferCapacity);
+    }
+
+    /**
+     * @param shardsCount number of shards (and their threads)
+     * @param bufferCapacity capacity of the buffer of incoming tasks of each shard
+     */
+    public ShardedResourceSharingTaskExecutor(int shardsCount, int bufferCapacity) {
+        if (shardsCount < 1) {
+            throw new IllegalArgumentException("shardsCount must be positive: " + shardsCount);
+        }
+        this.shards = new ArrayList<>(shardsCount);
+        for (int i = 0; i < shardsCount; i++) {
+            shards.add(new Shard(i, bufferCapacity));
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    /**
+     * Executes given task on the shard of it's Resource and waits for it's completion.
+     * @param task task to be executed
+     */
+    public void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        try {
+            executeAsync(task).join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Passes given task to the shard of it's Resource.
+     * @param task task to be executed
+     * @return future completed when the task is executed (and the Resource is closed, if it was the last pending task)
+     * @throws RejectedExecutionException if the executor is closed
+     */
+    public CompletableFuture<Void> executeAsync(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        PendingTask<RESOURCE_DISC, RESOURCE> pendingTask = new PendingTask<>(task);
+        Shard shard = shards.get(shardIndex(task.getResourceDiscriminator()));
+        submitting.incrementAndGet();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("Executor is closed");
+            }
+            while (!shard.buffer.offer(pendingTask)) {
+                shard.wakeUp();
+                LockSupport.parkNanos(FULL_BUFFER_PARK_NANOS);
+            }
+        } finally {
+            submitting.decrementAndGet();
+        }
+        shard.wakeUp();
+        return pendingTask.result;
+    }
+
+    /**
+     * Stops accepting new tasks, waits until all the already submitted ones are executed and their Resources closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        while (submitting.get() > 0) {
+            Thread.yield();
+        }
+        for (Shard shard : shards) {
+            shard.stopping = true;
+            shard.wakeUp();
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private int shardIndex(RESOURCE_DISC resourceDesc) {
+        int hash = resourceDesc.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % shards.size();
+    }
+
+    /**
+     * Single threaded part of the executor. All the fields except the buffer and the flags are accessed only by it's thread.
+     * Tasks are moved from the buffer to the backlog, where they are counted per Resource, so the shard knows
+     * whether the Resource is still needed after executing the task.
+     */
+    private class Shard implements Runnable {
+        private final MpscRingBuffer<PendingTask<RESOURCE_DISC, RESOURCE>> buffer;
+        private final Queue<PendingTask<RESOURCE_DISC, RESOURCE>> backlog = new ArrayDeque<>();
+        private final Map<RESOURCE_DISC, OpenResource<RESOURCE>> openResources = new HashMap<>();
+        private final Thread thread;
+        private volatile boolean sleeping;
+        private volatile boolean stopping;
+
+        public Shard(int index, int bufferCapacity) {
+            this.buffer = new MpscRingBuffer<>(bufferCapacity);
+            this.thread = new Thread(this, "resource-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        public void wakeUp() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                moveBufferToBacklog();
+                PendingTask<RESOURCE_DISC, RESOURCE> pendingTask = backlog.poll();
+                if (pendingTask != null) {
+                    execute(pendingTask);
+                } else if (stopping && buffer.isEmpty()) {
+                    return;
+                } else {
+                    sleep();
+                }
+            }
+        }
+
+        private void sleep() {
+            sleeping = true;
+            if (buffer.isEmpty() && !stopping) {
+                LockSupport.park(this);
+            }
+            sleeping = false;
+        }
+
+        private void moveBufferToBacklog() {
+            int capacity = buffer.capacity();
+            PendingTask<RESOURCE_DISC, RESOURCE> pendingTask;
+            while (backlog.size() < capacity && (pendingTask = buffer.poll()) != null) {
+                backlog.add(pendingTask);
+                OpenResource<RESOURCE> openResource = openResources.get(pendingTask.task.getResourceDiscriminator());
+                if (openResource == null) {
+                    openResource = new OpenResource<>();
+                    openResources.put(pendingTask.task.getResourceDiscriminator(), openResource);
+                }
+                openResource.pending++;
+            }
+        }
+
+        private void execute(PendingTask<RESOURCE_DISC, RESOURCE> pendingTask) {
+            TaskOnResource<RESOURCE_DISC, RESOURCE> task = pendingTask.task;
+            OpenResource<RESOURCE> openResource = openResources.get(task.getResourceDiscriminator());
+            Throwable taskExecutionException = null;
+            try {
+                if (!openResource.opened) {
+                    openResource.resource = task.openResource();
+                    openResource.opened = true;
+                }
+                task.executeOn(openResource.resource);
+            } catch (Throwable ex) {
+                taskExecutionException = ex;
+            }
+            if (--openResource.pending == 0) {
+                moveBufferToBacklog();
+            }
+            Throwable closingResourceException = null;
+            if (openResource.pending == 0) {
+                openResources.remove(task.getResourceDiscriminator());
+                closingResourceException = closeResource(task, openResource);
+            }
+            complete(pendingTask, taskExecutionException, closingResourceException);
+        }
+
+        private Throwable closeResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, OpenResource<RESOURCE> openResource) {
+            if (!openResource.opened) {
+                return null;
+            }
+            try {
+                task.closeResource(openResource.resource);
+                return null;
+            } catch (Throwable ex) {
+                return ex;
+            }
+        }
+
+        private void complete(PendingTask<RESOURCE_DISC, RESOURCE> pendingTask, Throwable taskExecutionException, Throwable closingResourceException) {
+            if (closingResourceException != null) {
+                if (taskExecutionException != null) {
+                    closingResourceException.addSuppressed(taskExecutionException);
+                }
+                pendingTask.result.completeExceptionally(closingResourceException);
+            } else if (taskExecutionException != null) {
+                pendingTask.result.completeExceptionally(taskExecutionException);
+            } else {
+                pendingTask.result.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Resource with the number of tasks pending for it in the shard's backlog, accessed only by the shard's thread.
+     */
+    private static class OpenResource<RESOURCE> {
+        private RESOURCE resource;
+        private boolean opened;
+        private int pending;
+    }
+
+    private static class PendingTask<RESOURCE_DISC, RESOURCE> {
+        private final TaskOnResource<RESOURCE_DISC, RESOURCE> task;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        public PendingTask(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+            this.task = task;
+        }
+    }
+}
@@ -3,22 +3,87 @@ package com.gryglicki.concurrent;
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
-import static java.util.Optional.empty;
-import static java.util.Optional.of;
+import static java.util.Objects.requireNonNull;
 /**
  * Fully synchronized implementation of {@link ResourceSharingTaskExecutor}
  *
+ * Resources known to be hot can be pinned - opened in advance and kept open until unpinned.
+ *
+ * Executing the task on the already open Resource doesn't allocate any objects. Exceptions are passed around
+ * as nullable references and entries of closed Resources are recycled for the next opened ones.
+ *
+ * Failures are handled according to the {@link FailurePolicy}. Failed opening of the Resource (including opening
+ * it as null) is reported with {@link ResourceUnavailableException} to all the tasks that were already waiting for it,
+ * instead of each of them trying to open it again. Resource that failed to close is forgotten anyway.
+ *
+ * Tasks waiting for the same Resource are ordered according to the {@link SchedulingPolicy},
+ * except for the tasks executed with {@link #executeOnAll}, which just take their turn on the Resource's monitor.
+ *
  * @author Michal Gryglicki
  * Created on 25/04/2017.
  */
 @ThreadSafe
 public class SynchronizedResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> implements ResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> {
+    private static final int MAX_RECYCLED_ENTRIES = 64;
+
     @GuardedBy("this")
     private final Map<RESOURCE_DISC, ResourceWithCounter<RESOURCE>> openResources = new HashMap<>();
+    @GuardedBy("this")
+    private final Deque<ResourceWithCounter<RESOURCE>> recycledEntries = new ArrayDeque<>();
+    @GuardedBy("this")
+    private final Map<RESOURCE_DISC, OpenFailure> openFailures = new HashMap<>();
+    @GuardedBy("this")
+    private long nextResourceOrder;
+    private final FailurePolicy failurePolicy;
+    private final SchedulingPolicy schedulingPolicy;
+    private final long startNanos = System.nanoTime();
+    private final ResourceSharingListener<RESOURCE_DISC> listener;
+
+    public SynchronizedResourceSharingTaskExecutor() {
+        this(ResourceSharingListener.noOp());
+    }
+
+    /**
+     * @param listener listener notified about opening, reusing and closing of the Resources and execution of the tasks
+     */
+    public SynchronizedResourceSharingTaskExecutor(ResourceSharingListener<RESOURCE_DISC> listener) {
+        this(FailurePolicy.defaults(), listener);
+    }
+
+    /**
+     * @param failurePolicy backoff after the failed opening and poisoning of the Resources
+     * @param listener listener notified about opening, reusing and closing of the Resources and execution of the tasks
+     */
+    public SynchronizedResourceSharingTaskExecutor(FailurePolicy failurePolicy, ResourceSharingListener<RESOURCE_DISC> listener) {
+        this(failurePolicy, SchedulingPolicy.unordered(), listener);
+    }
+
+    /**
+     * @param failurePolicy backoff after the failed opening and poisoning of the Resources
+     * @param schedulingPolicy order of the tasks waiting for the same Resource
+     * @param listener listener notified about opening, reusing and closing of the Resources and execution of the tasks
+     */
+    public SynchronizedResourceSharingTaskExecutor(FailurePolicy failurePolicy, SchedulingPolicy schedulingPolicy,
+                                                   ResourceSharingListener<RESOURCE_DISC> listener) {
+        this.failurePolicy = requireNonNull(failurePolicy);
+        this.schedulingPolicy = requireNonNull(schedulingPolicy);
+        this.listener = requireNonNull(listener);
+    }
 
     /**
      * Executes give task with this resource sharing executor.
@@ -31,155 +96,379 @@ public class SynchronizedResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> im
      *
      * All the synchronization happens in this single method.
      * @param task task to be executed
+     * @throws ResourceUnavailableException if the Resource failed to open while the task was waiting for it,
+     * or the task arrived during the backoff after such failure
      */
     public void execute(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
-        RESOURCE resource;
-        resource = getOrCreateResource(task);
-        Optional<RuntimeException> taskExecutionException = executeTaskOnResource(task, resource);
-        Optional<RuntimeException> closingResourceException = tryCloseResourceAndHandleException(task);
+        long arrivalNanos = System.nanoTime();
+        ResourceWithCounter<RESOURCE> resourceWithCounter = getOrCreateResource(task, arrivalNanos);
+        RuntimeException taskExecutionException = executeTaskOnResource(task, resourceWithCounter, arrivalNanos);
+        RuntimeException closingResourceException = tryCloseResourceAndHandleException(task, resourceWithCounter);
         throwExceptionIfNeeded(taskExecutionException, closingResourceException);
-
-        //???????????????????????????????????????????????????????
-        //?? Exception => propagate to the function further down to deal with exception
     }
 
-    private Optional<RuntimeException> executeTaskOnResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, RESOURCE resource) {
-        try {
-            synchronized (resource) {
-                task.executeOn(resource);
+    /**
+     * Opens Resources of the given tasks in parallel, outside of the executor's lock, and keeps them open until
+     * they are unpinned, e.g. to warm up the executor at startup. Already open Resources are just pinned.
+     * Pinned Resource holds one reference to the Resource, so it's never closed by the tasks executed on it.
+     * Resources that failed to open are not pinned.
+     * @param tasks tasks defining opening and closing of the Resources, they are not executed
+     * @param executor executor opening the Resources
+     * @throws RuntimeException first exception thrown while opening the Resources, with the following ones suppressed
+     */
+    public void pin(Collection<? extends TaskOnResource<RESOURCE_DISC, RESOURCE>> tasks, Executor executor) {
+        List<CompletableFuture<Void>> openings = new ArrayList<>();
+        for (TaskOnResource<RESOURCE_DISC, RESOURCE> task : tasks) {
+            if (!tryPinOpenResource(task)) {
+                openings.add(CompletableFuture.runAsync(() -> openAndPinResource(task), executor));
             }
-            return empty();
-        } catch (RuntimeException ex) {
-            return of(ex);
+        }
+        RuntimeException openingException = null;
+        for (CompletableFuture<Void> opening : openings) {
+            try {
+                opening.join();
+            } catch (CompletionException ex) {
+                RuntimeException cause = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+                if (openingException == null) {
+                    openingException = cause;
+                } else {
+                    openingException.addSuppressed(cause);
+                }
+            }
+        }
+        if (openingException != null) {
+            throw openingException;
         }
     }
 
-    private Optional<RuntimeException> tryCloseResourceAndHandleException(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
-        try {
-            tryCloseResource(task);
-            return empty();
-        } catch (RuntimeException ex) {
-            return of(ex);
+    /**
+     * Releases the Resource pinned with {@link #pin}. It's closed right away if no task is using it.
+     * @param task task defining closing of the Resource
+     */
+    public synchronized void unpin(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        ResourceWithCounter<RESOURCE> resourceWithCounter = openResources.get(task.getResourceDiscriminator());
+        if (resourceWithCounter != null && resourceWithCounter.pinned) {
+            resourceWithCounter.pinned = false;
+            tryCloseResource(task, resourceWithCounter);
         }
     }
 
-    private void throwExceptionIfNeeded(Optional<RuntimeException> taskExecutionException, Optional<RuntimeException> closingResourceException) {
-        if (closingResourceException.isPresent()) {
-            if (taskExecutionException.isPresent()) {
-                closingResourceException.get().addSuppressed(taskExecutionException.get());
-                throw closingResourceException.get();
-            } else {
-                throw closingResourceException.get();
+    private synchronized boolean tryPinOpenResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        ResourceWithCounter<RESOURCE> resourceWithCounter = openResources.get(task.getResourceDiscriminator());
+        if (resourceWithCounter == null) {
+            return false;
+        }
+        if (!resourceWithCounter.pinned) {
+            resourceWithCounter.pinned = true;
+            resourceWithCounter.incrementCounter();
+        }
+        return true;
+    }
+
+    /**
+     * Resource opened in the meantime by another task is pinned instead and the one opened here is closed.
+     */
+    private void openAndPinResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+        long openStart = System.nanoTime();
+        RESOURCE resource = ResourceOpening.requireOpened(task.openResource(), task.getResourceDiscriminator());
+        listener.resourceOpened(task.getResourceDiscriminator(), System.nanoTime() - openStart);
+        if (!registerPinnedResource(task, resource)) {
+            long closeStart = System.nanoTime();
+            try {
+                task.closeResource(resource);
+            } finally {
+                listener.resourceClosed(task.getResourceDiscriminator(), System.nanoTime() - closeStart);
             }
-        } else if (taskExecutionException.isPresent()) {
-            throw taskExecutionException.get();
         }
     }
 
+    private synchronized boolean registerPinnedResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, RESOURCE resource) {
+        if (tryPinOpenResource(task)) {
+            return false;
+        }
+        ResourceWithCounter<RESOURCE> resourceWithCounter = newResourceWithCounter(resource);
+        resourceWithCounter.pinned = true;
+        openResources.put(task.getResourceDiscriminator(), resourceWithCounter);
+        openFailures.remove(task.getResourceDiscriminator());
+        return true;
+    }
 
-    private synchronized RESOURCE getOrCreateResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
-        RESOURCE_DISC resourceDesc = task.getResourceDiscriminator();
-        if (openResources.containsKey(resourceDesc)) {
-            return openResources.get(resourceDesc).incrementCounterAndGetResource();
-        } else {
-            RESOURCE resource = task.openResource();
-            openResources.put(resourceDesc, new ResourceWithCounter<>(resource));
-            return resource;
+    /**
+     * Executes given task on multiple Resources at once.
+     * Resources are opened, shared with other tasks and closed the same way as in {@link #execute}.
+     * To avoid deadlocks between the tasks, access to the Resources is acquired in the global order
+     * in which the Resources were opened. Poisoning exception poisons all the Resources of the task.
+     * @param task task to be executed
+     */
+    public void executeOnAll(TaskOnResources<RESOURCE_DISC, RESOURCE> task) {
+        long arrivalNanos = System.nanoTime();
+        List<TaskOnResource<RESOURCE_DISC, RESOURCE>> resourceTasks = new ArrayList<>();
+        for (RESOURCE_DISC resourceDesc : task.getResourceDiscriminators()) {
+            resourceTasks.add(new SingleResourceTask<>(task, resourceDesc));
         }
+        List<ResourceWithCounter<RESOURCE>> resources = getOrCreateResources(resourceTasks, arrivalNanos);
+        RuntimeException taskExecutionException = executeTaskOnResources(task, resourceTasks, resources);
+        RuntimeException closingResourceException = tryCloseResourcesAndHandleException(resourceTasks, resources);
+        throwExceptionIfNeeded(taskExecutionException, closingResourceException);
     }
 
-    private synchronized void tryCloseResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
-        RESOURCE_DISC resourceDesc = task.getResourceDiscriminator();
-        if (openResources.containsKey(resourceDesc)) {
-            ResourceWithCounter<RESOURCE> resourceWithCounter = openResources.get(resourceDesc);
-            if (resourceWithCounter.decrementCounterAndCompareToZero()) {
-                task.closeResource(resourceWithCounter.getResource());
-                openResources.remove(resourceDesc);
+    private RuntimeException executeTaskOnResources(TaskOnResources<RESOURCE_DISC, RESOURCE> task,
+                                                    List<TaskOnResource<RESOURCE_DISC, RESOURCE>> resourceTasks,
+                                                    List<ResourceWithCounter<RESOURCE>> resources) {
+        Map<RESOURCE_DISC, RESOURCE> resourcesByDesc = new LinkedHashMap<>();
+        for (int i = 0; i < resourceTasks.size(); i++) {
+            resourcesByDesc.put(resourceTasks.get(i).getResourceDiscriminator(), resources.get(i).getResource());
+        }
+        List<ResourceWithCounter<RESOURCE>> orderedResources = new ArrayList<>(resources);
+        orderedResources.sort(Comparator.comparingLong(ResourceWithCounter::getOrder));
+        try {
+            executeInOrder(task, resourcesByDesc, orderedResources, 0);
+            return null;
+        } catch (RuntimeException ex) {
+            if (failurePolicy.isPoisonous(ex)) {
+                for (int i = 0; i < resourceTasks.size(); i++) {
+                    poison(resourceTasks.get(i).getResourceDiscriminator(), resources.get(i));
+                }
             }
+            return ex;
         }
     }
 
+    private void executeInOrder(TaskOnResources<RESOURCE_DISC, RESOURCE> task, Map<RESOURCE_DISC, RESOURCE> resources,
+                                List<ResourceWithCounter<RESOURCE>> orderedResources, int index) {
+        if (index == orderedResources.size()) {
+            task.executeOn(resources);
+            return;
+        }
+        synchronized (orderedResources.get(index).getResource()) {
+            executeInOrder(task, resources, orderedResources, index + 1);
+        }
+    }
 
-
-
-    /*public void execute(com.gryglicki.concurrent.TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
-        RESOURCE resource;
-        synchronized (this) {
-            resource = getOrCreateResource(task);
+    private RuntimeException tryCloseResourcesAndHandleException(List<TaskOnResource<RESOURCE_DISC, RESOURCE>> resourceTasks,
+                                                                 List<ResourceWithCounter<RESOURCE>> resources) {
+        RuntimeException closingResourceException = null;
+        for (int i = 0; i < resources.size(); i++) {
+            try {
+                tryCloseResource(resourceTasks.get(i), resources.get(i));
+            } catch (RuntimeException ex) {
+                if (closingResourceException == null) {
+                    closingResourceException = ex;
+                } else {
+                    closingResourceException.addSuppressed(ex);
+                }
+            }
         }
+        return closingResourceException;
+    }
 
-        Optional<RuntimeException> taskExecutionException = empty();
-        Optional<RuntimeException> closingResourceException = empty();
+    private RuntimeException executeTaskOnResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, ResourceWithCounter<RESOURCE> resourceWithCounter,
+                                                   long arrivalNanos) {
+        long waitStart = System.nanoTime();
+        boolean scheduled = schedulingPolicy.isScheduled();
         try {
-            synchronized (resource) {
-                task.executeOn(resource);
+            if (scheduled) {
+                resourceWithCounter.awaitTurn(schedulingPolicy.schedulingKey(task.getPriority(), arrivalNanos - startNanos));
             }
-        } catch (RuntimeException ex) {
-            taskExecutionException = of(ex);
-        } finally {
             try {
-                synchronized (this) {
-                    tryCloseResource(task);
+                synchronized (resourceWithCounter.getResource()) {
+                    long executeStart = System.nanoTime();
+                    listener.resourceAcquired(task.getResourceDiscriminator(), executeStart - waitStart);
+                    boolean failed = true;
+                    try {
+                        task.executeOn(resourceWithCounter.getResource());
+                        failed = false;
+                    } finally {
+                        listener.taskExecuted(task.getResourceDiscriminator(), System.nanoTime() - executeStart, failed);
+                    }
+                }
+            } finally {
+                if (scheduled) {
+                    resourceWithCounter.passTurn();
                 }
-            } catch (RuntimeException ex) {
-                closingResourceException = of(ex);
             }
-            throwExceptionIfNeeded(taskExecutionException, closingResourceException);
+            return null;
+        } catch (RuntimeException ex) {
+            if (failurePolicy.isPoisonous(ex)) {
+                poison(task.getResourceDiscriminator(), resourceWithCounter);
+            }
+            return ex;
+        }
+    }
+
+    /**
+     * Poisoned Resource is no longer shared with the new tasks and it's not pinned anymore,
+     * so it's closed by the last task using it.
+     */
+    private synchronized void poison(RESOURCE_DISC resourceDesc, ResourceWithCounter<RESOURCE> resourceWithCounter) {
+        if (openResources.remove(resourceDesc, resourceWithCounter) && resourceWithCounter.pinned) {
+            resourceWithCounter.pinned = false;
+            resourceWithCounter.decrementCounterAndCompareToZero();
+        }
+    }
 
-            //???????????????????????????????????????????????????????
-            //?? Exception => propagate to the function further down to deal with exception
+    private RuntimeException tryCloseResourceAndHandleException(TaskOnResource<RESOURCE_DISC, RESOURCE> task, ResourceWithCounter<RESOURCE> resourceWithCounter) {
+        try {
+            tryCloseResource(task, resourceWithCounter);
+            return null;
+        } catch (RuntimeException ex) {
+            return ex;
         }
     }
 
-    private void throwExceptionIfNeeded(Optional<RuntimeException> taskExecutionException, Optional<RuntimeException> closingResourceException) {
-        if (closingResourceException.isPresent()) {
-            if (taskExecutionException.isPresent()) {
-                closingResourceException.get().addSuppressed(taskExecutionException.get());
-                throw closingResourceException.get();
-            } else {
-                throw closingResourceException.get();
+    private void throwExceptionIfNeeded(RuntimeException taskExecutionException, RuntimeException closingResourceException) {
+        if (closingResourceException != null) {
+            if (taskExecutionException != null) {
+                closingResourceException.addSuppressed(taskExecutionException);
             }
-        } else if (taskExecutionException.isPresent()) {
-            throw taskExecutionException.get();
+            throw closingResourceException;
+        } else if (taskExecutionException != null) {
+            throw taskExecutionException;
         }
     }
 
-    private RESOURCE getOrCreateResource(com.gryglicki.concurrent.TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
-        RESOURCE_DISC resourceDesc = task.getResourceDiscriminator();
-        if (openResources.containsKey(resourceDesc)) {
-            return openResources.get(resourceDesc).incrementCounterAndGetResource();
-        } else {
-            RESOURCE resource = task.openResource();
-            openResources.put(resourceDesc, new ResourceWithCounter<>(resource));
-            return resource;
+
+    private synchronized ResourceWithCounter<RESOURCE> getOrCreateResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, long arrivalNanos) {
+        return getOrCreateResourceWithCounter(task, arrivalNanos);
+    }
+
+    /**
+     * Either all the Resources are acquired or none of them.
+     */
+    private synchronized List<ResourceWithCounter<RESOURCE>> getOrCreateResources(List<TaskOnResource<RESOURCE_DISC, RESOURCE>> resourceTasks, long arrivalNanos) {
+        List<ResourceWithCounter<RESOURCE>> resources = new ArrayList<>();
+        try {
+            for (TaskOnResource<RESOURCE_DISC, RESOURCE> resourceTask : resourceTasks) {
+                resources.add(getOrCreateResourceWithCounter(resourceTask, arrivalNanos));
+            }
+            return resources;
+        } catch (RuntimeException ex) {
+            RuntimeException closingResourceException = tryCloseResourcesAndHandleException(resourceTasks, resources);
+            if (closingResourceException != null) {
+                ex.addSuppressed(closingResourceException);
+            }
+            throw ex;
         }
     }
 
-    private void tryCloseResource(com.gryglicki.concurrent.TaskOnResource<RESOURCE_DISC, RESOURCE> task) {
+    /**
+     * Open Resource is always shared. Otherwise the task fails fast if the Resource failed to open
+     * after the task arrived, or during the backoff after the failure.
+     */
+    @GuardedBy("this")
+    private ResourceWithCounter<RESOURCE> getOrCreateResourceWithCounter(TaskOnResource<RESOURCE_DISC, RESOURCE> task, long arrivalNanos) {
         RESOURCE_DISC resourceDesc = task.getResourceDiscriminator();
-        if (openResources.containsKey(resourceDesc)) {
-            ResourceWithCounter<RESOURCE> resourceWithCounter = openResources.get(resourceDesc);
-            if (resourceWithCounter.decrementCounterAndCompareToZero()) {
+        ResourceWithCounter<RESOURCE> resourceWithCounter = openResources.get(resourceDesc);
+        if (resourceWithCounter != null) {
+            listener.resourceReused(resourceDesc);
+            return resourceWithCounter.incrementCounter();
+        }
+        long openStart = System.nanoTime();
+        forgetExpiredOpenFailures(openStart);
+        OpenFailure openFailure = openFailures.get(resourceDesc);
+        if (openFailure != null && (arrivalNanos - openFailure.failedAtNanos < 0 || openStart - openFailure.retryAtNanos < 0)) {
+            throw new ResourceUnavailableException("Resource failed to open: " + resourceDesc, openFailure.cause);
+        }
+        RESOURCE resource;
+        try {
+            resource = ResourceOpening.requireOpened(task.openResource(), resourceDesc);
+        } catch (RuntimeException ex) {
+            recordOpenFailure(resourceDesc, openFailure, ex, openStart);
+            throw ex;
+        }
+        listener.resourceOpened(resourceDesc, System.nanoTime() - openStart);
+        if (openFailure != null) {
+            openFailures.remove(resourceDesc);
+        }
+        resourceWithCounter = newResourceWithCounter(resource);
+        openResources.put(resourceDesc, resourceWithCounter);
+        return resourceWithCounter;
+    }
+
+    @GuardedBy("this")
+    private void recordOpenFailure(RESOURCE_DISC resourceDesc, OpenFailure previousFailure, RuntimeException cause, long openStart) {
+        long failedAtNanos = System.nanoTime();
+        forgetExpiredOpenFailures(failedAtNanos);
+        int consecutiveFailures = previousFailure == null ? 1 : previousFailure.consecutiveFailures + 1;
+        long backoffNanos = failurePolicy.backoffNanos(consecutiveFailures);
+        long retentionNanos = Math.max(backoffNanos, failedAtNanos - openStart);
+        openFailures.put(resourceDesc, new OpenFailure(cause, failedAtNanos, failedAtNanos + backoffNanos, retentionNanos, consecutiveFailures));
+    }
+
+    /**
+     * Failures of the Resources that are not used anymore are forgotten once they're older than their backoff
+     * and the opening that failed, so that they can't be waited for by any task. They're looked for on every
+     * opening of any Resource (not on the reuse of the open one), so they don't pile up until the next failure.
+     */
+    @GuardedBy("this")
+    private void forgetExpiredOpenFailures(long nowNanos) {
+        if (!openFailures.isEmpty()) {
+            openFailures.values().removeIf(failure -> nowNanos - failure.retryAtNanos > failure.retentionNanos);
+        }
+    }
+
+    @GuardedBy("this")
+    private ResourceWithCounter<RESOURCE> newResourceWithCounter(RESOURCE resource) {
+        ResourceWithCounter<RESOURCE> resourceWithCounter = recycledEntries.isEmpty() ? new ResourceWithCounter<>() : recycledEntries.pop();
+        resourceWithCounter.reset(resource, nextResourceOrder++);
+        return resourceWithCounter;
+    }
+
+    /**
+     * Entry is removed (and the Resource is reported as closed) even if closing of the Resource fails,
+     * so the next task opens it again.
+     */
+    private synchronized void tryCloseResource(TaskOnResource<RESOURCE_DISC, RESOURCE> task, ResourceWithCounter<RESOURCE> resourceWithCounter) {
+        if (resourceWithCounter.decrementCounterAndCompareToZero()) {
+            RESOURCE_DISC resourceDesc = task.getResourceDiscriminator();
+            long closeStart = System.nanoTime();
+            try {
                 task.closeResource(resourceWithCounter.getResource());
-                openResources.remove(resourceDesc);
+            } finally {
+                listener.resourceClosed(resourceDesc, System.nanoTime() - closeStart);
+                openResources.remove(resourceDesc, resourceWithCounter);
+                recycle(resourceWithCounter);
             }
         }
-    }*/
+    }
+
+    @GuardedBy("this")
+    private void recycle(ResourceWithCounter<RESOURCE> resourceWithCounter) {
+        resourceWithCounter.reset(null, 0);
+        if (recycledEntries.size() < MAX_RECYCLED_ENTRIES) {
+            recycledEntries.push(resourceWithCounter);
+        }
+    }
 
+    /**
+     * Mutable, so that the entry of the closed Resource can be reused. All the fields except the scheduling ones
+     * are guarded by the executor. Scheduling fields are guarded by the entry itself and they're left as they are
+     * on reuse - nobody is waiting for the closed Resource.
+     */
     private static class ResourceWithCounter<RESOURCE> {
         @GuardedBy("itself")
-        private final RESOURCE resource;
+        private RESOURCE resource;
+        private long order;
         private int counter;
+        private boolean pinned;
+        @GuardedBy("this")
+        private boolean busy;
+        @GuardedBy("this")
+        private PriorityQueue<Waiter> waiters;
+        @GuardedBy("this")
+        private long nextWaiterSequence;
 
-        public ResourceWithCounter(RESOURCE resource)
+        public void reset(RESOURCE resource, long order)
         {
             this.resource = resource;
+            this.order = order;
             this.counter = 1;
+            this.pinned = false;
         }
 
-        public RESOURCE incrementCounterAndGetResource() {
+        public ResourceWithCounter<RESOURCE> incrementCounter() {
             counter++;
-            return resource;
+            return this;
         }
 
         public boolean decrementCounterAndCompareToZero()
@@ -191,6 +480,138 @@ public class SynchronizedResourceSharingTaskExecutor<RESOURCE_DISC, RESOURCE> im
         public RESOURCE getResource() {
             return resource;
         }
+
+        public long getOrder() {
+            return order;
+        }
+
+        /**
+         * Free Resource is taken right away, otherwise the task waits until the Resource is handed over to it.
+         * Busy Resource is never free while there are tasks waiting for it.
+         */
+        public void awaitTurn(long schedulingKey) {
+            Waiter waiter;
+            synchronized (this) {
+                if (!busy) {
+                    busy = true;
+                    return;
+                }
+                if (waiters == null) {
+                    waiters = new PriorityQueue<>();
+                }
+                waiter = new Waiter(schedulingKey, nextWaiterSequence++);
+                waiters.add(waiter);
+            }
+            waiter.await();
+        }
+
+        public void passTurn() {
+            Waiter next;
+            synchronized (this) {
+                next = waiters == null ? null : waiters.poll();
+                if (next == null) {
+                    busy = false;
+                    return;
+                }
+            }
+            next.grant();
+        }
+    }
+
+    /**
+     * Task waiting for it's turn on the Resource. Higher scheduling key goes first, then lower sequence.
+     */
+    private static class Waiter implements Comparable<Waiter> {
+        private final long schedulingKey;
+        private final long sequence;
+        @GuardedBy("this")
+        private boolean granted;
+
+        public Waiter(long schedulingKey, long sequence) {
+            this.schedulingKey = schedulingKey;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Waits uninterruptibly, because the turn is handed over to the task anyway and it must pass it on.
+         */
+        public synchronized void await() {
+            boolean interrupted = false;
+            while (!granted) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public synchronized void grant() {
+            granted = true;
+            notify();
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byKey = Long.compare(other.schedulingKey, schedulingKey);
+            return byKey != 0 ? byKey : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Last failed opening of the Resource.
+     */
+    private static class OpenFailure {
+        private final RuntimeException cause;
+        private final long failedAtNanos;
+        private final long retryAtNanos;
+        private final long retentionNanos;
+        private final int consecutiveFailures;
+
+        public OpenFailure(RuntimeException cause, long failedAtNanos, long retryAtNanos, long retentionNanos, int consecutiveFailures) {
+            this.cause = cause;
+            this.failedAtNanos = failedAtNanos;
+            this.retryAtNanos = retryAtNanos;
+            this.retentionNanos = retentionNanos;
+            this.consecutiveFailures = consecutiveFailures;
+        }
+    }
+
+    /**
+     * Single Resource of the {@link TaskOnResources}, so that it can be opened and closed as any other Resource.
+     * Executed on it's own, it executes the task on this single Resource only.
+     */
+    private static class SingleResourceTask<RESOURCE_DISC, RESOURCE> implements TaskOnResource<RESOURCE_DISC, RESOURCE> {
+        private final TaskOnResources<RESOURCE_DISC, RESOURCE> task;
+        private final RESOURCE_DISC resourceDesc;
+
+        public SingleResourceTask(TaskOnResources<RESOURCE_DISC, RESOURCE> task, RESOURCE_DISC resourceDesc) {
+            this.task = task;
+            this.resourceDesc = resourceDesc;
+        }
+
+        @Override
+        public RESOURCE_DISC getResourceDiscriminator() {
+            return resourceDesc;
+        }
+
+        @Override
+        public RESOURCE openResource() {
+            return task.openResource(resourceDesc);
+        }
+
+        @Override
+        public void closeResource(RESOURCE resource) {
+            task.closeResource(resourceDesc, resource);
+        }
+
+        @Override
+        public void executeOn(RESOURCE resource) {
+            task.executeOn(Collections.singletonMap(resourceDesc, resource));
+        }
     }
 }
 
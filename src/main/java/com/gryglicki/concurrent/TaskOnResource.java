@@ -1,5 +1,7 @@
 package com.gryglicki.concurrent;
 
+import java.util.List;
+
 /**
  * Interface of the Task that can be handled by {@link ResourceSharingTaskExecutor}.
  * This task interface separates opening/closing of resources from actually executing action on it.
@@ -39,4 +41,37 @@ public interface TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE> {
      */
     void executeOn(RESOURCE resource);
 
+    /**
+     * This method is used to execute at once multiple tasks that were waiting for the same Resource,
+     * e.g. to replace many small writes with the single buffered one.
+     * It's called by executors that support batching on the first task of the batch only, whatever the other tasks
+     * in the batch define, so all the tasks that operates on the Resource with the same discriminator value
+     * should have the consistent batch implementation (just as the opening/closing one).
+     * By default each task from the batch is executed with {@link #executeOn}.
+     * @param resource opened resource that you can execute actions on
+     * @param tasks tasks waiting for the resource (including this one) in order of submission
+     */
+    default void executeBatchOn(RESOURCE resource, List<? extends TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE>> tasks) {
+        for (TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE> task : tasks) {
+            task.executeOn(resource);
+        }
+    }
+
+    /**
+     * Defines whether this task can be executed on the Resource in parallel with other {@link AccessMode#SHARED} tasks.
+     * @return {@link AccessMode#EXCLUSIVE} by default
+     */
+    default AccessMode getAccessMode() {
+        return AccessMode.EXCLUSIVE;
+    }
+
+    /**
+     * Defines order of the tasks waiting for the same Resource in executors that schedule them,
+     * see {@link SchedulingPolicy}. Tasks with higher priority are executed first.
+     * @return 0 by default
+     */
+    default int getPriority() {
+        return 0;
+    }
+
 }
@@ -1,5 +1,7 @@
 package com.gryglicki.concurrent;
 
+import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 /**
@@ -15,6 +17,9 @@ public class TaskOnResourceBuilder<RESOURCE_DISCRIMINATOR, RESOURCE>
     private Supplier<RESOURCE> openResourceSupplier;
     private Consumer<RESOURCE> closeResourceConsumer;
     private Consumer<RESOURCE> executeOnConsumer;
+    private BiConsumer<RESOURCE, List<? extends TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE>>> executeBatchOnConsumer;
+    private AccessMode accessMode = AccessMode.EXCLUSIVE;
+    private int priority;
 
     private TaskOnResourceBuilder(RESOURCE_DISCRIMINATOR resourceDiscriminator) {
         this.resourceDiscriminator = resourceDiscriminator;
@@ -56,29 +61,97 @@ public class TaskOnResourceBuilder<RESOURCE_DISCRIMINATOR, RESOURCE>
     }
 
     /**
-     * @return built {@link TaskOnResource} object
+     * Defines function {@link TaskOnResource#executeBatchOn}.
+     * If not defined each task from the batch is executed with it's own {@link TaskOnResource#executeOn}
+     */
+    public TaskOnResourceBuilder<RESOURCE_DISCRIMINATOR, RESOURCE> withExecuteBatchOn(BiConsumer<RESOURCE, List<? extends TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE>>> executeBatchOnConsumer) {
+        this.executeBatchOnConsumer = executeBatchOnConsumer;
+        return this;
+    }
+
+    /**
+     * Defines {@link TaskOnResource#getAccessMode}, {@link AccessMode#EXCLUSIVE} by default
+     */
+    public TaskOnResourceBuilder<RESOURCE_DISCRIMINATOR, RESOURCE> withAccessMode(AccessMode accessMode) {
+        this.accessMode = accessMode;
+        return this;
+    }
+
+    /**
+     * Defines {@link TaskOnResource#getPriority}, 0 by default
+     */
+    public TaskOnResourceBuilder<RESOURCE_DISCRIMINATOR, RESOURCE> withPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * @return built {@link TaskOnResource} object, not affected by any later changes of this builder
      */
     public TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE> build() {
-        return new TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE>() {
-            @Override
-            public RESOURCE_DISCRIMINATOR getResourceDiscriminator() {
-                return resourceDiscriminator;
-            }
+        return new BuiltTaskOnResource<>(this);
+    }
 
-            @Override
-            public RESOURCE openResource() {
-                return openResourceSupplier.get();
-            }
+    /**
+     * Immutable snapshot of the builder. Named class instead of the anonymous one, so the built task
+     * doesn't keep the builder reachable and it's calls can be easily inlined.
+     */
+    private static final class BuiltTaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE> implements TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE> {
+        private final RESOURCE_DISCRIMINATOR resourceDiscriminator;
+        private final Supplier<RESOURCE> openResourceSupplier;
+        private final Consumer<RESOURCE> closeResourceConsumer;
+        private final Consumer<RESOURCE> executeOnConsumer;
+        private final BiConsumer<RESOURCE, List<? extends TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE>>> executeBatchOnConsumer;
+        private final AccessMode accessMode;
+        private final int priority;
 
-            @Override
-            public void closeResource(RESOURCE resource) {
-                closeResourceConsumer.accept(resource);
-            }
+        private BuiltTaskOnResource(TaskOnResourceBuilder<RESOURCE_DISCRIMINATOR, RESOURCE> builder) {
+            this.resourceDiscriminator = builder.resourceDiscriminator;
+            this.openResourceSupplier = builder.openResourceSupplier;
+            this.closeResourceConsumer = builder.closeResourceConsumer;
+            this.executeOnConsumer = builder.executeOnConsumer;
+            this.executeBatchOnConsumer = builder.executeBatchOnConsumer;
+            this.accessMode = builder.accessMode;
+            this.priority = builder.priority;
+        }
 
-            @Override
-            public void executeOn(RESOURCE resource) {
-                executeOnConsumer.accept(resource);
+        @Override
+        public RESOURCE_DISCRIMINATOR getResourceDiscriminator() {
+            return resourceDiscriminator;
+        }
+
+        @Override
+        public RESOURCE openResource() {
+            return openResourceSupplier.get();
+        }
+
+        @Override
+        public void closeResource(RESOURCE resource) {
+            closeResourceConsumer.accept(resource);
+        }
+
+        @Override
+        public void executeOn(RESOURCE resource) {
+            executeOnConsumer.accept(resource);
+        }
+
+        @Override
+        public void executeBatchOn(RESOURCE resource, List<? extends TaskOnResource<RESOURCE_DISCRIMINATOR, RESOURCE>> tasks) {
+            if (executeBatchOnConsumer != null) {
+                executeBatchOnConsumer.accept(resource, tasks);
+            } else {
+                TaskOnResource.super.executeBatchOn(resource, tasks);
             }
-        };
+        }
+
+        @Override
+        public AccessMode getAccessMode() {
+            return accessMode;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
     }
 }
@@ -0,0 +1,41 @@
+package com.gryglicki.concurrent;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Interface of the Task executed on multiple Resources at once, e.g. data file and it's index file.
+ * Like {@link TaskOnResource} it separates opening/closing of resources from actually executing action on them.
+ *
+ * @param <RESOURCE_DISCRIMINATOR> resource unique identifier type
+ * @param <RESOURCE> resource type
+ */
+public interface TaskOnResources<RESOURCE_DISCRIMINATOR, RESOURCE> {
+
+    /**
+     * @return Unique identifiers of all the resources needed by the task
+     * @see TaskOnResource#getResourceDiscriminator()
+     */
+    Set<RESOURCE_DISCRIMINATOR> getResourceDiscriminators();
+
+    /**
+     * @param resourceDiscriminator identifier of the resource to be opened
+     * @return opened resource
+     * @see TaskOnResource#openResource()
+     */
+    RESOURCE openResource(RESOURCE_DISCRIMINATOR resourceDiscriminator);
+
+    /**
+     * @param resourceDiscriminator identifier of the resource to be closed
+     * @param resource resource to be closed
+     * @see TaskOnResource#closeResource(Object)
+     */
+    void closeResource(RESOURCE_DISCRIMINATOR resourceDiscriminator, RESOURCE resource);
+
+    /**
+     * This method is used to define an action to be executed on all the defined Resources at once.
+     * No other task accesses any of these Resources while it's executed.
+     * @param resources opened resources by their discriminator values
+     */
+    void executeOn(Map<RESOURCE_DISCRIMINATOR, RESOURCE> resources);
+}
@@ -0,0 +1,253 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link AsyncResourceSharingTaskExecutor}.
+ * Runs all the {@link ResourceSharingTaskExecutorSimpleTest} cases against this implementation too.
+ */
+public class AsyncResourceSharingTaskExecutorTest extends ResourceSharingTaskExecutorSimpleTest
+{
+    private static final String OTHER_DISCRIMINATOR = "otherResourceDiscriminator";
+
+    private final Queue<Runnable> manualExecutorQueue = new LinkedList<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+
+    @Override
+    protected ResourceSharingTaskExecutor<String, StringBuilder> createResourceSharingTaskExecutor() {
+        return new AsyncResourceSharingTaskExecutor<>(Runnable::run);
+    }
+
+    @Test
+    public void shouldShareResourceBetweenQueuedTasks() throws Exception {
+        //Given
+        AsyncResourceSharingTaskExecutor<String, StringBuilder> executor = new AsyncResourceSharingTaskExecutor<>(manualExecutorQueue::add);
+        List<String> results = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        //When
+        for (int i = 0; i < 100; i++) {
+            futures.add(executor.executeAsync(countingTask("someResourceDiscriminator", results)));
+            futures.add(executor.executeAsync(countingTask(OTHER_DISCRIMINATOR, results)));
+        }
+        runManualExecutor();
+        //Then
+        futures.forEach(future -> assertTrue(future.isDone() && !future.isCompletedExceptionally()));
+        assertEquals(2, opened.get());
+        assertEquals(2, closed.get());
+        assertEquals(2, results.size());
+        assertEquals(100, results.get(0).length());
+    }
+
+    @Test
+    public void shouldReopenResourceForTasksQueuedAfterClosing() throws Exception {
+        //Given
+        AsyncResourceSharingTaskExecutor<String, StringBuilder> executor = new AsyncResourceSharingTaskExecutor<>(manualExecutorQueue::add);
+        List<String> results = new ArrayList<>();
+        //When
+        CompletableFuture<Void> first = executor.executeAsync(countingTask("someResourceDiscriminator", results));
+        runManualExecutor();
+        CompletableFuture<Void> second = executor.executeAsync(countingTask("someResourceDiscriminator", results));
+        runManualExecutor();
+        //Then
+        assertTrue(first.isDone() && second.isDone());
+        assertEquals(2, opened.get());
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void shouldExecuteTasksAgainOnceExecutorStopsRejectingTheQueue() throws Exception {
+        //Given
+        AtomicInteger scheduled = new AtomicInteger();
+        AsyncResourceSharingTaskExecutor<String, StringBuilder> executor = new AsyncResourceSharingTaskExecutor<>(runnable -> {
+            if (scheduled.incrementAndGet() == 2) {
+                throw new RejectedExecutionException("Rejected once");
+            }
+            manualExecutorQueue.add(runnable);
+        });
+        List<String> results = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int maxTasksPerDrain = AsyncResourceSharingTaskExecutor.MAX_TASKS_PER_DRAIN;
+        //When
+        for (int i = 0; i < 3 * maxTasksPerDrain; i++) {
+            futures.add(executor.executeAsync(countingTask("someResourceDiscriminator", results)));
+        }
+        runManualExecutor();
+        //Then
+        for (int i = 0; i < futures.size(); i++) {
+            CompletableFuture<Void> future = futures.get(i);
+            if (i >= maxTasksPerDrain && i < 2 * maxTasksPerDrain) {
+                ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+                assertTrue(exception.getCause() instanceof RejectedExecutionException);
+            } else {
+                assertTrue(future.isDone() && !future.isCompletedExceptionally(), "task " + i);
+            }
+        }
+        assertEquals(1, opened.get());
+        assertEquals(1, closed.get());
+        assertEquals(2 * maxTasksPerDrain, results.get(0).length());
+    }
+
+    @Test
+    public void shouldExecuteThousandsOfResourcesOnSmallThreadPool() throws Exception {
+        //Given
+        ExecutorService threadPool = newFixedThreadPool(2);
+        try {
+            AsyncResourceSharingTaskExecutor<String, StringBuilder> executor = new AsyncResourceSharingTaskExecutor<>(threadPool);
+            List<String> results = new ArrayList<>();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            //When
+            for (int i = 0; i < 10_000; i++) {
+                futures.add(executor.executeAsync(countingTask("resource-" + (i % 1000), results)));
+            }
+            //Then
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(opened.get(), closed.get());
+    }
+
+    @Test
+    public void shouldExecuteTasksOnTheSameResourceInSubmissionOrder() throws Exception {
+        //Given
+        ExecutorService threadPool = newFixedThreadPool(4);
+        AsyncResourceSharingTaskExecutor<String, List<Integer>> executor = new AsyncResourceSharingTaskExecutor<>(threadPool);
+        List<Integer> executionOrder = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
+            //When
+            for (int i = 0; i < 1000; i++) {
+                int sequenceNumber = i;
+                futures.add(executor.executeAsync(TaskOnResourceBuilder.<String, List<Integer>>builderWithDiscriminator("someResourceDiscriminator")
+                                .withOpenResource(() -> executionOrder)
+                                .withCloseResource(list -> {})
+                                .withExecuteOn(list -> list.add(sequenceNumber))
+                                .build()));
+            }
+            //Then
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(1000, executionOrder.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, executionOrder.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void shouldExecuteQueuedTasksInBatches() throws Exception {
+        //Given
+        AsyncResourceSharingTaskExecutor<String, StringBuilder> executor =
+                        new AsyncResourceSharingTaskExecutor<>(manualExecutorQueue::add, 4, 0, TimeUnit.MILLISECONDS);
+        List<Integer> batchSizes = new ArrayList<>();
+        List<String> results = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        //When
+        for (int i = 0; i < 10; i++) {
+            futures.add(executor.executeAsync(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("someResourceDiscriminator")
+                            .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder(); })
+                            .withCloseResource(sb -> results.add(sb.toString()))
+                            .withExecuteOn(sb -> sb.append("X"))
+                            .withExecuteBatchOn((sb, tasks) -> {
+                                batchSizes.add(tasks.size());
+                                tasks.forEach(task -> task.executeOn(sb));
+                            })
+                            .build()));
+        }
+        runManualExecutor();
+        //Then
+        futures.forEach(future -> assertTrue(future.isDone() && !future.isCompletedExceptionally()));
+        assertEquals(1, opened.get());
+        assertEquals(Arrays.asList(4, 4, 2), batchSizes);
+        assertEquals(Collections.singletonList("XXXXXXXXXX"), results);
+    }
+
+    @Test
+    public void shouldCompleteWholeBatchExceptionallyOnBatchExecutionException() throws Exception {
+        //Given
+        AsyncResourceSharingTaskExecutor<String, StringBuilder> executor =
+                        new AsyncResourceSharingTaskExecutor<>(manualExecutorQueue::add, 4, 0, TimeUnit.MILLISECONDS);
+        TaskOnResource<String, StringBuilder> task = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("someResourceDiscriminator")
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> closed.incrementAndGet())
+                        .withExecuteOn(sb -> sb.append("X"))
+                        .withExecuteBatchOn((sb, tasks) -> { throw new IllegalStateException(); })
+                        .build();
+        //When
+        CompletableFuture<Void> first = executor.executeAsync(task);
+        CompletableFuture<Void> second = executor.executeAsync(task);
+        runManualExecutor();
+        //Then
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void shouldSkipCancelledQueuedTasks() throws Exception {
+        //Given
+        AsyncResourceSharingTaskExecutor<String, StringBuilder> executor = new AsyncResourceSharingTaskExecutor<>(manualExecutorQueue::add);
+        List<String> results = new ArrayList<>();
+        CompletableFuture<Void> first = executor.executeAsync(countingTask("someResourceDiscriminator", results));
+        CompletableFuture<Void> cancelled = executor.executeAsync(countingTask("someResourceDiscriminator", results));
+        CompletableFuture<Void> third = executor.executeAsync(countingTask("someResourceDiscriminator", results));
+        //When
+        cancelled.cancel(false);
+        runManualExecutor();
+        //Then
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(cancelled.isCancelled());
+        assertTrue(third.isDone() && !third.isCompletedExceptionally());
+        assertEquals(Collections.singletonList("XX"), results);
+    }
+
+    @Test
+    public void shouldNotOpenResourceWhenAllQueuedTasksAreCancelled() throws Exception {
+        //Given
+        AsyncResourceSharingTaskExecutor<String, StringBuilder> executor = new AsyncResourceSharingTaskExecutor<>(manualExecutorQueue::add);
+        CompletableFuture<Void> cancelled = executor.executeAsync(countingTask("someResourceDiscriminator", new ArrayList<>()));
+        //When
+        cancelled.cancel(false);
+        runManualExecutor();
+        //Then
+        assertEquals(0, opened.get());
+        assertEquals(0, closed.get());
+    }
+
+    private TaskOnResource<String, StringBuilder> countingTask(String discriminator, List<String> results) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder(); })
+                        .withCloseResource(sb -> {
+                            closed.incrementAndGet();
+                            synchronized (results) {
+                                results.add(sb.toString());
+                            }
+                        })
+                        .withExecuteOn(sb -> sb.append("X"))
+                        .build();
+    }
+
+    private void runManualExecutor() {
+        Runnable runnable;
+        while ((runnable = manualExecutorQueue.poll()) != null) {
+            runnable.run();
+        }
+    }
+}
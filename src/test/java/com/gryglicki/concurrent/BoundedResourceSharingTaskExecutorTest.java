@@ -0,0 +1,144 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link BoundedResourceSharingTaskExecutor}
+ */
+public class BoundedResourceSharingTaskExecutorTest
+{
+    private final CountDownLatch inFlightTaskStarted = new CountDownLatch(1);
+    private final CountDownLatch inFlightTaskFinish = new CountDownLatch(1);
+
+    @AfterEach
+    public void tearDown() {
+        inFlightTaskFinish.countDown();
+    }
+
+    @Test
+    public void shouldRejectTaskExceedingLimitPerResource() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = new BoundedResourceSharingTaskExecutor<>(
+                        new ConcurrentResourceSharingTaskExecutor<>(), 1, 10, OverflowPolicy.REJECT);
+        startInFlightTask(executor, "A");
+        //When / Then
+        assertThrows(ResourceOverloadedException.class, () -> executor.execute(task("A")));
+        executor.execute(task("B"));
+    }
+
+    @Test
+    public void shouldRejectTaskExceedingGlobalLimit() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = new BoundedResourceSharingTaskExecutor<>(
+                        new ConcurrentResourceSharingTaskExecutor<>(), 10, 1, OverflowPolicy.REJECT);
+        startInFlightTask(executor, "A");
+        //When / Then
+        assertThrows(ResourceOverloadedException.class, () -> executor.execute(task("B")));
+    }
+
+    @Test
+    public void shouldRejectBlockedTaskAfterTimeout() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = new BoundedResourceSharingTaskExecutor<>(
+                        new ConcurrentResourceSharingTaskExecutor<>(), 1, 10, OverflowPolicy.BLOCK, 50, TimeUnit.MILLISECONDS);
+        startInFlightTask(executor, "A");
+        //When / Then
+        long start = System.nanoTime();
+        assertThrows(ResourceOverloadedException.class, () -> executor.execute(task("A")));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void shouldAcceptBlockedTaskWhenSlotIsFreed() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = new BoundedResourceSharingTaskExecutor<>(
+                        new ConcurrentResourceSharingTaskExecutor<>(), 1, 10, OverflowPolicy.BLOCK, 5, TimeUnit.SECONDS);
+        startInFlightTask(executor, "A");
+        //When
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> executor.execute(task("A")));
+        inFlightTaskFinish.countDown();
+        //Then
+        blocked.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldRunAsyncTaskExceedingLimitsInCallerThread() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = new BoundedResourceSharingTaskExecutor<>(
+                        new ConcurrentResourceSharingTaskExecutor<>(), 1, 1, OverflowPolicy.CALLER_RUNS);
+        startInFlightTask(executor, "A");
+        AtomicReference<Thread> executingThread = new AtomicReference<>();
+        //When
+        CompletableFuture<Void> result = executor.executeAsync(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("B")
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> executingThread.set(Thread.currentThread()))
+                        .build());
+        //Then
+        assertTrue(result.isDone());
+        assertSame(Thread.currentThread(), executingThread.get());
+    }
+
+    @Test
+    public void shouldCancelQueuedTaskOfDelegateAndFreeItsSlot() throws Exception {
+        //Given
+        Queue<Runnable> manualExecutorQueue = new LinkedList<>();
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = new BoundedResourceSharingTaskExecutor<>(
+                        new AsyncResourceSharingTaskExecutor<>(manualExecutorQueue::add), 1, 1, OverflowPolicy.REJECT);
+        AtomicInteger executed = new AtomicInteger();
+        CompletableFuture<Void> cancelled = executor.executeAsync(countingTask("A", executed));
+        //When
+        cancelled.cancel(false);
+        CompletableFuture<Void> next = executor.executeAsync(countingTask("A", executed));
+        Runnable drain;
+        while ((drain = manualExecutorQueue.poll()) != null) {
+            drain.run();
+        }
+        //Then
+        assertTrue(cancelled.isCancelled());
+        assertTrue(next.isDone() && !next.isCompletedExceptionally());
+        assertEquals(1, executed.get());
+    }
+
+    private void startInFlightTask(ResourceSharingTaskExecutor<String, StringBuilder> executor, String discriminator) throws InterruptedException {
+        executor.executeAsync(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> {
+                            inFlightTaskStarted.countDown();
+                            try {
+                                inFlightTaskFinish.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        })
+                        .build());
+        assertTrue(inFlightTaskStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    private static TaskOnResource<String, StringBuilder> countingTask(String discriminator, AtomicInteger executed) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> executed.incrementAndGet())
+                        .build();
+    }
+
+    private static TaskOnResource<String, StringBuilder> task(String discriminator) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> sb.append("X"))
+                        .build();
+    }
+}
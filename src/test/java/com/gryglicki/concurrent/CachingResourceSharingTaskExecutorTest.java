@@ -0,0 +1,232 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link CachingResourceSharingTaskExecutor}
+ */
+public class CachingResourceSharingTaskExecutorTest
+{
+    private final AtomicInteger opened = new AtomicInteger();
+    private final List<String> closedResources = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void shouldReuseReleasedResourceAndCloseItOnExecutorClose() throws Exception {
+        //Given
+        CachingResourceSharingTaskExecutor<String, StringBuilder> executor = new CachingResourceSharingTaskExecutor<>(10, 1, TimeUnit.HOURS);
+        //When
+        for (int i = 0; i < 3; i++) {
+            executor.execute(appendTask("A"));
+        }
+        //Then
+        assertEquals(1, opened.get());
+        assertTrue(closedResources.isEmpty());
+        executor.close();
+        assertEquals(singletonList("A:XXX"), closedResources);
+        assertEquals(0, executor.getOpenResourcesCount());
+    }
+
+    @Test
+    public void shouldCloseResourceIdleLongerThanIdleTimeout() throws Exception {
+        //Given
+        CachingResourceSharingTaskExecutor<String, StringBuilder> executor = new CachingResourceSharingTaskExecutor<>(10, 50, TimeUnit.MILLISECONDS);
+        //When
+        executor.execute(appendTask("A"));
+        //Then
+        assertEventually(() -> closedResources.size() == 1);
+        assertEquals(0, executor.getOpenResourcesCount());
+        executor.execute(appendTask("A"));
+        assertEquals(2, opened.get());
+        executor.close();
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedResourceWhenMaxOpenResourcesExceeded() throws Exception {
+        //Given
+        CachingResourceSharingTaskExecutor<String, StringBuilder> executor = new CachingResourceSharingTaskExecutor<>(2, 1, TimeUnit.HOURS);
+        //When
+        executor.execute(appendTask("A"));
+        executor.execute(appendTask("B"));
+        executor.execute(appendTask("A"));
+        executor.execute(appendTask("C"));
+        //Then
+        assertEventually(() -> closedResources.size() == 1);
+        assertEquals(singletonList("B:X"), closedResources);
+        assertEquals(2, executor.getOpenResourcesCount());
+        executor.close();
+        assertTrue(closedResources.containsAll(asList("A:XX", "C:X")));
+    }
+
+    @Test
+    public void shouldEvictIdleResourceOverMaxOpenResourcesWhenReleased() throws Exception {
+        //Given
+        CachingResourceSharingTaskExecutor<String, StringBuilder> executor = new CachingResourceSharingTaskExecutor<>(1, 1, TimeUnit.HOURS);
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread inUse = new Thread(() -> executor.execute(appendTask("A", executing, finish)));
+        inUse.start();
+        try {
+            executing.await(5, TimeUnit.SECONDS);
+            //When
+            executor.execute(appendTask("B"));
+            //Then
+            assertEventually(() -> closedResources.size() == 1);
+            assertEquals(singletonList("B:X"), closedResources);
+            assertEquals(1, executor.getOpenResourcesCount());
+        } finally {
+            finish.countDown();
+            inUse.join(5000);
+        }
+        executor.close();
+        assertEquals(asList("B:X", "A:X"), closedResources);
+    }
+
+    @Test
+    public void shouldCloseResourceReleasedAfterExecutorCloseAndRejectNewTasks() throws Exception {
+        //Given
+        CachingResourceSharingTaskExecutor<String, StringBuilder> executor = new CachingResourceSharingTaskExecutor<>(10, 1, TimeUnit.HOURS);
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread inUse = new Thread(() -> executor.execute(appendTask("A", executing, finish)));
+        inUse.start();
+        try {
+            executing.await(5, TimeUnit.SECONDS);
+            //When
+            executor.close();
+            assertTrue(closedResources.isEmpty());
+        } finally {
+            finish.countDown();
+            inUse.join(5000);
+        }
+        //Then
+        assertEquals(singletonList("A:X"), closedResources);
+        assertEquals(0, executor.getOpenResourcesCount());
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(appendTask("A")));
+        assertEquals(1, opened.get());
+    }
+
+    @Test
+    public void shouldCancelSweepOfExternalExecutorOnClose() throws Exception {
+        //Given
+        ScheduledThreadPoolExecutor closingExecutor = new ScheduledThreadPoolExecutor(1);
+        closingExecutor.setRemoveOnCancelPolicy(true);
+        try {
+            CachingResourceSharingTaskExecutor<String, StringBuilder> executor =
+                            new CachingResourceSharingTaskExecutor<>(10, 1, TimeUnit.HOURS, closingExecutor);
+            executor.execute(appendTask("A"));
+            assertEquals(1, closingExecutor.getQueue().size());
+            //When
+            executor.close();
+            //Then
+            assertTrue(closingExecutor.getQueue().isEmpty());
+            assertFalse(closingExecutor.isShutdown());
+            assertEquals(singletonList("A:X"), closedResources);
+        } finally {
+            closingExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldCloseEvictedResourceInlineWhenClosingExecutorRejectsIt() throws Exception {
+        //Given
+        ScheduledThreadPoolExecutor closingExecutor = new ScheduledThreadPoolExecutor(1);
+        CachingResourceSharingTaskExecutor<String, StringBuilder> executor =
+                        new CachingResourceSharingTaskExecutor<>(1, 1, TimeUnit.HOURS, closingExecutor);
+        closingExecutor.shutdownNow();
+        executor.execute(appendTask("A"));
+        //When
+        executor.execute(appendTask("B"));
+        //Then
+        assertEquals(singletonList("A:X"), closedResources);
+        assertEquals(1, executor.getOpenResourcesCount());
+        executor.close();
+        assertEquals(asList("A:X", "B:X"), closedResources);
+    }
+
+    @Test
+    public void shouldReportOpeningFailedWithErrorToWaitingTask() throws Exception {
+        //Given
+        CachingResourceSharingTaskExecutor<String, StringBuilder> executor = new CachingResourceSharingTaskExecutor<>(10, 1, TimeUnit.HOURS);
+        CountDownLatch opening = new CountDownLatch(1);
+        CountDownLatch failOpening = new CountDownLatch(1);
+        TaskOnResource<String, StringBuilder> failingToOpen = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> {
+                            opening.countDown();
+                            try {
+                                failOpening.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            throw new AssertionError("Can't open A");
+                        })
+                        .withCloseResource(sb -> fail("Should not be closed"))
+                        .withExecuteOn(sb -> fail("Should not be executed"))
+                        .build();
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> executor.execute(failingToOpen));
+        opening.await(5, TimeUnit.SECONDS);
+        AtomicReference<Throwable> waitingException = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                executor.execute(failingToOpen);
+            } catch (Throwable ex) {
+                waitingException.set(ex);
+            }
+        });
+        waiting.start();
+        assertEventually(() -> waiting.getState() == Thread.State.WAITING);
+        //When
+        failOpening.countDown();
+        //Then
+        ExecutionException firstException = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertTrue(firstException.getCause() instanceof AssertionError);
+        waiting.join(5000);
+        assertTrue(waitingException.get() instanceof AssertionError);
+        executor.execute(appendTask("A"));
+        assertEquals(1, opened.get());
+        executor.close();
+        assertEquals(singletonList("A:X"), closedResources);
+    }
+
+    private TaskOnResource<String, StringBuilder> appendTask(String discriminator) {
+        return appendTask(discriminator, new CountDownLatch(1), new CountDownLatch(0));
+    }
+
+    private TaskOnResource<String, StringBuilder> appendTask(String discriminator, CountDownLatch executing, CountDownLatch finish) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder(discriminator + ":"); })
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> {
+                            executing.countDown();
+                            try {
+                                finish.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            sb.append("X");
+                        })
+                        .build();
+    }
+
+    private static void assertEventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+}
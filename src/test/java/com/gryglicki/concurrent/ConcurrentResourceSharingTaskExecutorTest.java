@@ -0,0 +1,449 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+/**
+ * Tests for {@link ConcurrentResourceSharingTaskExecutor}.
+ * Runs all the {@link ResourceSharingTaskExecutorSimpleTest} cases against this implementation too.
+ */
+public class ConcurrentResourceSharingTaskExecutorTest extends ResourceSharingTaskExecutorSimpleTest
+{
+    private static final int THREADS = 8;
+    private static final int TASKS_PER_DISCRIMINATOR = 200;
+
+    @Override
+    protected ResourceSharingTaskExecutor<String, StringBuilder> createResourceSharingTaskExecutor() {
+        return new ConcurrentResourceSharingTaskExecutor<>();
+    }
+
+    @Test
+    public void shouldExecuteAllTasksAndCloseEveryOpenedResource() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = createResourceSharingTaskExecutor();
+        ExecutorService threadPool = newFixedThreadPool(THREADS);
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        AtomicInteger appended = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(THREADS * TASKS_PER_DISCRIMINATOR);
+        try {
+            //When
+            for (int i = 0; i < THREADS * TASKS_PER_DISCRIMINATOR; i++) {
+                String discriminator = "resource-" + (i % THREADS);
+                threadPool.execute(() -> {
+                    executor.execute(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                                    .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder(); })
+                                    .withCloseResource(sb -> { appended.addAndGet(sb.length()); closed.incrementAndGet(); })
+                                    .withExecuteOn(sb -> sb.append("X"))
+                                    .build());
+                    done.countDown();
+                });
+            }
+            //Then
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(opened.get(), closed.get());
+        assertEquals(THREADS * TASKS_PER_DISCRIMINATOR, appended.get());
+    }
+
+    @Test
+    public void shouldNotDelayTasksOnOtherResourceWhileResourceIsBeingOpened() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = createResourceSharingTaskExecutor();
+        CountDownLatch slowOpeningStarted = new CountDownLatch(1);
+        CountDownLatch slowOpeningFinish = new CountDownLatch(1);
+        TaskOnResource<String, StringBuilder> slowTask = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> {
+                            slowOpeningStarted.countDown();
+                            awaitUninterruptibly(slowOpeningFinish);
+                            return new StringBuilder();
+                        })
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> sb.append("A"))
+                        .build();
+        TaskOnResource<String, StringBuilder> fastTask = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("B")
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> sb.append("B"))
+                        .build();
+        CompletableFuture<Void> slowExecution = CompletableFuture.runAsync(() -> executor.execute(slowTask));
+        assertTrue(slowOpeningStarted.await(5, TimeUnit.SECONDS));
+        //When
+        CompletableFuture<Void> fastExecution = CompletableFuture.runAsync(() -> executor.execute(fastTask));
+        //Then
+        fastExecution.get(5, TimeUnit.SECONDS);
+        assertFalse(slowExecution.isDone());
+        slowOpeningFinish.countDown();
+        slowExecution.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldSwitchNewTasksToReplacementWhileRotatedResourceIsStillInUse() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor =
+                        new ConcurrentResourceSharingTaskExecutor<>(RotationPolicy.never().afterExecutions(1));
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        CountDownLatch firstTaskFinish = new CountDownLatch(1);
+        CountDownLatch secondTaskFinish = new CountDownLatch(1);
+        Thread firstTask = new Thread(() -> executor.execute(blockingTask(opened, closed, firstTaskFinish)));
+        Thread secondTask = new Thread(() -> executor.execute(blockingTask(opened, closed, secondTaskFinish)));
+        firstTask.start();
+        awaitState(firstTask, Thread.State.WAITING);
+        secondTask.start();
+        awaitState(secondTask, Thread.State.WAITING);
+        firstTaskFinish.countDown();
+        firstTask.join(5000);
+        //When - second task is still executing on the rotated Resource
+        executor.execute(blockingTask(opened, closed, new CountDownLatch(0)));
+        //Then
+        assertEquals(2, opened.get());
+        assertEquals(1, closed.get());
+        secondTaskFinish.countDown();
+        secondTask.join(5000);
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void shouldExecuteSharedTasksOnTheSameResourceInParallel() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = createResourceSharingTaskExecutor();
+        CyclicBarrier bothTasksExecuting = new CyclicBarrier(2);
+        TaskOnResource<String, StringBuilder> sharedTask = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> {
+                            try {
+                                bothTasksExecuting.await(5, TimeUnit.SECONDS);
+                            } catch (Exception e) {
+                                throw new IllegalStateException("Shared tasks were not executed in parallel", e);
+                            }
+                        })
+                        .withAccessMode(AccessMode.SHARED)
+                        .build();
+        //When
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> executor.execute(sharedTask));
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> executor.execute(sharedTask));
+        //Then
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldNotExecuteExclusiveTaskInParallelWithSharedOnes() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = createResourceSharingTaskExecutor();
+        ExecutorService threadPool = newFixedThreadPool(THREADS);
+        AtomicInteger executingShared = new AtomicInteger();
+        AtomicInteger executingExclusive = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            //When
+            for (int i = 0; i < THREADS * TASKS_PER_DISCRIMINATOR; i++) {
+                boolean exclusive = i % 4 == 0;
+                futures.add(threadPool.submit(() -> executor.execute(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                                .withOpenResource(StringBuilder::new)
+                                .withCloseResource(sb -> {})
+                                .withExecuteOn(sb -> {
+                                    AtomicInteger executing = exclusive ? executingExclusive : executingShared;
+                                    executing.incrementAndGet();
+                                    if (executingExclusive.get() > 1 || (executingExclusive.get() > 0 && executingShared.get() > 0)) {
+                                        violations.incrementAndGet();
+                                    }
+                                    executing.decrementAndGet();
+                                })
+                                .withAccessMode(exclusive ? AccessMode.EXCLUSIVE : AccessMode.SHARED)
+                                .build())));
+            }
+            //Then
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(0, violations.get());
+    }
+
+    @Test
+    public void shouldReopenResourceAfterOpeningFailedWithError() throws Exception {
+        //Given
+        ConcurrentResourceSharingTaskExecutor<String, StringBuilder> executor = new ConcurrentResourceSharingTaskExecutor<>();
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        CountDownLatch opening = new CountDownLatch(1);
+        CountDownLatch failOpening = new CountDownLatch(1);
+        TaskOnResource<String, StringBuilder> failingToOpen = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> {
+                            opening.countDown();
+                            awaitUninterruptibly(failOpening);
+                            throw new AssertionError("Can't open A");
+                        })
+                        .withCloseResource(sb -> fail("Should not be closed"))
+                        .withExecuteOn(sb -> fail("Should not be executed"))
+                        .build();
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> executor.execute(failingToOpen));
+        opening.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> executor.execute(failingToOpen, 5, TimeUnit.SECONDS));
+        //When
+        failOpening.countDown();
+        //Then
+        ExecutionException firstException = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertTrue(firstException.getCause() instanceof AssertionError);
+        ExecutionException waitingException = assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertTrue(waitingException.getCause() instanceof AssertionError);
+        executor.execute(blockingTask(opened, closed, new CountDownLatch(0)), 1, TimeUnit.SECONDS);
+        assertEquals(1, opened.get());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void shouldRejectResourceOpenedAsNull() throws Exception {
+        //Given
+        ConcurrentResourceSharingTaskExecutor<String, StringBuilder> executor = new ConcurrentResourceSharingTaskExecutor<>();
+        TaskOnResource<String, StringBuilder> openingNull = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> null)
+                        .withCloseResource(sb -> fail("Should not be closed"))
+                        .withExecuteOn(sb -> fail("Should not be executed"))
+                        .build();
+        //When
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> executor.execute(openingNull));
+        //Then
+        assertEquals("Resource opened as null: A", exception.getMessage());
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        executor.execute(blockingTask(opened, closed, new CountDownLatch(0)), 1, TimeUnit.SECONDS);
+        assertEquals(1, opened.get());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void shouldTimeOutWaitingForResourceHeldByAnotherTask() throws Exception {
+        //Given
+        ConcurrentResourceSharingTaskExecutor<String, StringBuilder> executor = new ConcurrentResourceSharingTaskExecutor<>();
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        CountDownLatch firstTaskFinish = new CountDownLatch(1);
+        Thread firstTask = new Thread(() -> executor.execute(blockingTask(opened, closed, firstTaskFinish)));
+        firstTask.start();
+        awaitState(firstTask, Thread.State.WAITING);
+        //When
+        assertThrows(ResourceTimeoutException.class,
+                        () -> executor.execute(blockingTask(opened, closed, new CountDownLatch(0)), 50, TimeUnit.MILLISECONDS));
+        //Then
+        assertEquals(0, closed.get());
+        firstTaskFinish.countDown();
+        firstTask.join(5000);
+        assertEquals(1, opened.get());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void shouldCancelWaitingForResourceWhenThreadIsInterrupted() throws Exception {
+        //Given
+        ConcurrentResourceSharingTaskExecutor<String, StringBuilder> executor = new ConcurrentResourceSharingTaskExecutor<>();
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        CountDownLatch firstTaskFinish = new CountDownLatch(1);
+        Thread firstTask = new Thread(() -> executor.execute(blockingTask(opened, closed, firstTaskFinish)));
+        firstTask.start();
+        awaitState(firstTask, Thread.State.WAITING);
+        CompletableFuture<Throwable> secondTaskResult = new CompletableFuture<>();
+        Thread secondTask = new Thread(() -> {
+            try {
+                executor.execute(blockingTask(opened, closed, new CountDownLatch(0)));
+                secondTaskResult.complete(null);
+            } catch (RuntimeException ex) {
+                secondTaskResult.complete(Thread.currentThread().isInterrupted() ? ex : null);
+            }
+        });
+        secondTask.start();
+        awaitState(secondTask, Thread.State.WAITING);
+        //When
+        secondTask.interrupt();
+        //Then
+        assertTrue(secondTaskResult.get(5, TimeUnit.SECONDS) instanceof CancellationException);
+        firstTaskFinish.countDown();
+        firstTask.join(5000);
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void shouldTimeOutWaitingForPreviousInstanceToClose() throws Exception {
+        //Given
+        ConcurrentResourceSharingTaskExecutor<String, StringBuilder> executor = new ConcurrentResourceSharingTaskExecutor<>();
+        CountDownLatch closing = new CountDownLatch(1);
+        CountDownLatch finishClosing = new CountDownLatch(1);
+        AtomicBoolean previousClosed = new AtomicBoolean();
+        AtomicBoolean openedAfterPreviousClosed = new AtomicBoolean();
+        Thread closingTask = new Thread(() -> executor.execute(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {
+                            closing.countDown();
+                            awaitUninterruptibly(finishClosing);
+                            previousClosed.set(true);
+                        })
+                        .withExecuteOn(sb -> sb.append("X"))
+                        .build()));
+        closingTask.start();
+        assertTrue(closing.await(5, TimeUnit.SECONDS));
+        TaskOnResource<String, StringBuilder> reopeningTask = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> { openedAfterPreviousClosed.set(previousClosed.get()); return new StringBuilder(); })
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> sb.append("X"))
+                        .build();
+        //When
+        long start = System.nanoTime();
+        assertThrows(ResourceTimeoutException.class, () -> executor.execute(reopeningTask, 100, TimeUnit.MILLISECONDS));
+        //Then
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "timeout not respected");
+        Thread waitingTask = new Thread(() -> executor.execute(reopeningTask));
+        waitingTask.start();
+        awaitState(waitingTask, Thread.State.WAITING);
+        finishClosing.countDown();
+        closingTask.join(5000);
+        waitingTask.join(5000);
+        assertTrue(openedAfterPreviousClosed.get());
+    }
+
+    @Test
+    public void shouldAbandonHungResourceAndExecuteWaitingTaskOnReplacement() throws Exception {
+        //Given
+        ConcurrentResourceSharingTaskExecutor<String, StringBuilder> executor = new ConcurrentResourceSharingTaskExecutor<>(
+                        RotationPolicy.never(), HungResourcePolicy.abandonAfter(50, TimeUnit.MILLISECONDS), ResourceSharingListener.noOp());
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        CountDownLatch hungTaskFinish = new CountDownLatch(1);
+        Thread hungTask = new Thread(() -> executor.execute(blockingTask(opened, closed, hungTaskFinish)));
+        hungTask.start();
+        awaitState(hungTask, Thread.State.WAITING);
+        //When
+        executor.execute(blockingTask(opened, closed, new CountDownLatch(0)), 5, TimeUnit.SECONDS);
+        //Then
+        assertEquals(2, opened.get());
+        assertEquals(1, closed.get());
+        hungTaskFinish.countDown();
+        hungTask.join(5000);
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void shouldForceCloseHungResourceOnlyOnce() throws Exception {
+        //Given
+        ConcurrentResourceSharingTaskExecutor<String, StringBuilder> executor = new ConcurrentResourceSharingTaskExecutor<>(
+                        RotationPolicy.never(), HungResourcePolicy.forceCloseAfter(50, TimeUnit.MILLISECONDS), ResourceSharingListener.noOp());
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        CountDownLatch hungTaskFinish = new CountDownLatch(1);
+        Thread hungTask = new Thread(() -> executor.execute(blockingTask(opened, closed, hungTaskFinish)));
+        hungTask.start();
+        awaitState(hungTask, Thread.State.WAITING);
+        //When
+        executor.execute(blockingTask(opened, closed, new CountDownLatch(0)));
+        //Then
+        assertEquals(2, opened.get());
+        assertEquals(2, closed.get());
+        hungTaskFinish.countDown();
+        hungTask.join(5000);
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void shouldExecuteTasksSubmittedByHundredThousandVirtualThreads() throws Exception {
+        ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+        assumeTrue(virtualThreads != null, "virtual threads require JDK 21+");
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = createResourceSharingTaskExecutor();
+        int submitters = 100_000;
+        int discriminators = 1_000;
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        AtomicInteger appended = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(submitters);
+        try {
+            //When
+            for (int i = 0; i < submitters; i++) {
+                String discriminator = "resource-" + (i % discriminators);
+                virtualThreads.execute(() -> {
+                    executor.execute(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                                    .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder(); })
+                                    .withCloseResource(sb -> { appended.addAndGet(sb.length()); closed.incrementAndGet(); })
+                                    .withExecuteOn(sb -> {
+                                        sleepUninterruptibly(1);
+                                        sb.append("X");
+                                    })
+                                    .build());
+                    done.countDown();
+                });
+            }
+            //Then
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+        } finally {
+            virtualThreads.shutdownNow();
+        }
+        assertEquals(opened.get(), closed.get());
+        assertEquals(submitters, appended.get());
+    }
+
+    /**
+     * @return executor starting new virtual thread for each task or null if they are not supported by the JVM
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static void sleepUninterruptibly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static TaskOnResource<String, StringBuilder> blockingTask(AtomicInteger opened, AtomicInteger closed, CountDownLatch finish) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder(); })
+                        .withCloseResource(sb -> closed.incrementAndGet())
+                        .withExecuteOn(sb -> awaitUninterruptibly(finish))
+                        .build();
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != state) {
+            assertTrue(System.nanoTime() < deadline, "thread is not " + state);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link FileAppendTasks} and {@link BufferedFileAppender}
+ */
+public class FileAppendTasksTest
+{
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file-append-tasks");
+        file = directory.resolve("file.txt");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File each : files) {
+                Files.delete(each.toPath());
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldAppendContentOfAllTasksSharingTheFile() throws Exception {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<Path, BufferedFileAppender> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        FileAppendTasks fileAppendTasks = new FileAppendTasks(64, 1, TimeUnit.HOURS);
+        TaskOnResource<Path, BufferedFileAppender> task = fileAppendTasks.appendTask(file, "test value\n");
+        ExecutorService threadPool = newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(1000);
+        try {
+            //When
+            for (int i = 0; i < 1000; i++) {
+                threadPool.execute(() -> {
+                    executor.execute(task);
+                    done.countDown();
+                });
+            }
+            //Then
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(1000, Files.readAllLines(file).stream().filter("test value"::equals).count());
+    }
+
+    @Test
+    public void shouldFlushWhenBufferIsFullAndOnClose() throws Exception {
+        //Given
+        BufferedFileAppender appender = BufferedFileAppender.open(file, 8, 1, TimeUnit.HOURS);
+        //When
+        appender.append("1234");
+        long sizeBeforeBufferIsFull = Files.size(file);
+        appender.append("5678").append("9");
+        long sizeAfterBufferIsFull = Files.size(file);
+        appender.close();
+        //Then
+        assertEquals(0, sizeBeforeBufferIsFull);
+        assertEquals(8, sizeAfterBufferIsFull);
+        assertEquals("123456789", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldWriteContentLargerThanBufferDirectly() throws Exception {
+        //Given
+        BufferedFileAppender appender = BufferedFileAppender.open(file, 4, 1, TimeUnit.HOURS);
+        //When
+        appender.append("ab").append("cdefghij".getBytes(StandardCharsets.UTF_8)).append("za\u017c\u00f3\u0142\u0107");
+        appender.close();
+        //Then
+        assertEquals("abcdefghijza\u017c\u00f3\u0142\u0107", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldRejectBufferTooSmallForEncodedCharacter() throws Exception {
+        //When
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> BufferedFileAppender.open(file, 2, 1, TimeUnit.HOURS));
+        //Then
+        assertEquals("bufferSize must be at least 4: 2", ex.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> new FileAppendTasks(3, 1, TimeUnit.HOURS));
+    }
+
+    @Test
+    public void shouldAppendMultiByteCharactersToSmallestBuffer() throws Exception {
+        //Given
+        BufferedFileAppender appender = BufferedFileAppender.open(file, 4, 1, TimeUnit.HOURS);
+        //When
+        appender.append("\u20ac").append("a\ud83d\ude00").append("\u20ac\u20ac");
+        appender.close();
+        //Then
+        assertEquals("\u20aca\ud83d\ude00\u20ac\u20ac", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldFlushBufferedDataOlderThanMaxFlushDelay() throws Exception {
+        //Given
+        BufferedFileAppender appender = BufferedFileAppender.open(file, 1024, 10, TimeUnit.MILLISECONDS);
+        appender.append("old");
+        //When
+        Thread.sleep(20);
+        appender.append("new");
+        //Then
+        assertEquals("oldnew", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        appender.close();
+    }
+}
@@ -0,0 +1,196 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link FileLockCoordinator}, processes are coordinated in the forked JVMs
+ */
+public class FileLockCoordinatorTest
+{
+    private static final int PROCESSES = 3;
+    private static final int THREADS = 2;
+    private static final int INCREMENTS = 300;
+
+    private Path directory;
+    private Path counterFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file-lock-coordinator");
+        counterFile = directory.resolve("counter.txt");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File each : files) {
+                Files.delete(each.toPath());
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void shouldNotLoseUpdatesOfResourceSharedByMultipleProcesses() throws Exception {
+        //Given
+        List<Process> processes = new ArrayList<>();
+        //When
+        for (int i = 0; i < PROCESSES; i++) {
+            processes.add(new ProcessBuilder(javaExecutable(), "-cp", classPath(), CounterProcess.class.getName(), counterFile.toString())
+                            .inheritIO()
+                            .start());
+        }
+        //Then
+        for (Process process : processes) {
+            assertTrue(process.waitFor(60, TimeUnit.SECONDS), "Process didn't finish");
+            assertEquals(0, process.exitValue());
+        }
+        assertEquals(PROCESSES * THREADS * INCREMENTS, readCounter(counterFile));
+    }
+
+    @Test
+    public void shouldTimeOutWhenLockIsHeldByAnotherProcess() throws Exception {
+        //Given
+        Process holder = new ProcessBuilder(javaExecutable(), "-cp", classPath(), LockHoldingProcess.class.getName(), counterFile.toString())
+                        .start();
+        assertEquals('L', holder.getInputStream().read());
+        FileLockCoordinator<Path> coordinator = FileLockCoordinator.forFiles(100, TimeUnit.MILLISECONDS);
+        SynchronizedResourceSharingTaskExecutor<Path, Counter> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        //When
+        assertThrows(ResourceTimeoutException.class, () -> executor.execute(coordinator.coordinated(incrementTask(counterFile))));
+        holder.getOutputStream().close();
+        //Then
+        assertTrue(holder.waitFor(60, TimeUnit.SECONDS), "Process didn't finish");
+        executor.execute(coordinator.coordinated(incrementTask(counterFile)));
+        assertEquals(1, readCounter(counterFile));
+    }
+
+    @Test
+    public void shouldReleaseLockWhenOpeningFailsWithError() throws Exception {
+        //Given
+        FileLockCoordinator<Path> coordinator = FileLockCoordinator.forFiles(100, TimeUnit.MILLISECONDS);
+        SynchronizedResourceSharingTaskExecutor<Path, Counter> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        TaskOnResource<Path, Counter> failingToOpen = TaskOnResourceBuilder.<Path, Counter>builderWithDiscriminator(counterFile)
+                        .withOpenResource(() -> { throw new AssertionError("Can't open counter"); })
+                        .withCloseResource(counter -> fail("Should not be closed"))
+                        .withExecuteOn(counter -> fail("Should not be executed"))
+                        .build();
+        //When
+        assertThrows(AssertionError.class, () -> executor.execute(coordinator.coordinated(failingToOpen)));
+        //Then
+        executor.execute(coordinator.coordinated(incrementTask(counterFile)));
+        assertEquals(1, readCounter(counterFile));
+    }
+
+    private static TaskOnResource<Path, Counter> incrementTask(Path counterFile) {
+        return TaskOnResourceBuilder.<Path, Counter>builderWithDiscriminator(counterFile)
+                        .withOpenResource(() -> new Counter(readCounter(counterFile)))
+                        .withCloseResource(counter -> writeCounter(counterFile, counter.value))
+                        .withExecuteOn(counter -> counter.value++)
+                        .build();
+    }
+
+    private static int readCounter(Path counterFile) {
+        try {
+            return Files.exists(counterFile) ? Integer.parseInt(new String(Files.readAllBytes(counterFile), StandardCharsets.UTF_8)) : 0;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void writeCounter(Path counterFile, int value) {
+        try {
+            Files.write(counterFile, Integer.toString(value).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static String javaExecutable() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    /**
+     * Class path of the forked JVM, test runners don't have to use java.class.path.
+     */
+    private static String classPath() throws URISyntaxException {
+        return Paths.get(FileLockCoordinator.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                        + File.pathSeparator
+                        + Paths.get(FileLockCoordinatorTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    /**
+     * Counter read from the file on opening and written back on closing, so updates are lost without the coordination.
+     */
+    private static class Counter {
+        private int value;
+
+        public Counter(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class CounterProcess {
+        public static void main(String[] args) throws Exception {
+            Path counterFile = Paths.get(args[0]);
+            FileLockCoordinator<Path> coordinator = FileLockCoordinator.forFiles(30, TimeUnit.SECONDS);
+            SynchronizedResourceSharingTaskExecutor<Path, Counter> executor = new SynchronizedResourceSharingTaskExecutor<>();
+            ExecutorService threads = newFixedThreadPool(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                threads.submit(() -> {
+                    for (int j = 0; j < INCREMENTS; j++) {
+                        executor.execute(coordinator.coordinated(incrementTask(counterFile)));
+                    }
+                });
+            }
+            threads.shutdown();
+            if (!threads.awaitTermination(50, TimeUnit.SECONDS)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Holds the lock until it's standard input is closed.
+     */
+    public static class LockHoldingProcess {
+        public static void main(String[] args) throws Exception {
+            Path counterFile = Paths.get(args[0]);
+            FileLockCoordinator<Path> coordinator = FileLockCoordinator.forFiles(30, TimeUnit.SECONDS);
+            new SynchronizedResourceSharingTaskExecutor<Path, Counter>().execute(coordinator.coordinated(
+                            TaskOnResourceBuilder.<Path, Counter>builderWithDiscriminator(counterFile)
+                                            .withOpenResource(() -> new Counter(0))
+                                            .withCloseResource(counter -> { })
+                                            .withExecuteOn(counter -> {
+                                                try {
+                                                    System.out.write('L');
+                                                    System.out.flush();
+                                                    while (System.in.read() != -1) {
+                                                        // wait for the end of input
+                                                    }
+                                                } catch (IOException ex) {
+                                                    throw new UncheckedIOException(ex);
+                                                }
+                                            })
+                                            .build()));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link PooledResourceSharingTaskExecutor}.
+ * Runs all the {@link ResourceSharingTaskExecutorSimpleTest} cases against this implementation too.
+ */
+public class PooledResourceSharingTaskExecutorTest extends ResourceSharingTaskExecutorSimpleTest
+{
+    private final AtomicInteger opened = new AtomicInteger();
+    private final List<String> closedResources = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected ResourceSharingTaskExecutor<String, StringBuilder> createResourceSharingTaskExecutor() {
+        return new PooledResourceSharingTaskExecutor<>(2);
+    }
+
+    @Test
+    public void shouldExecuteTasksOnTheSameDiscriminatorInParallelOnDifferentInstances() throws Exception {
+        //Given
+        PooledResourceSharingTaskExecutor<String, StringBuilder> executor = new PooledResourceSharingTaskExecutor<>(2);
+        CyclicBarrier bothExecuting = new CyclicBarrier(2);
+        ExecutorService threadPool = newFixedThreadPool(2);
+        try {
+            //When
+            Future<?> first = threadPool.submit(() -> executor.execute(appendTask("A", () -> await(bothExecuting))));
+            Future<?> second = threadPool.submit(() -> executor.execute(appendTask("A", () -> await(bothExecuting))));
+            //Then
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(2, opened.get());
+        assertEquals(2, closedResources.size());
+    }
+
+    @Test
+    public void shouldNotOpenMoreInstancesThanPoolSizeAndCloseAllOfThemWhenDemandDrops() throws Exception {
+        //Given
+        PooledResourceSharingTaskExecutor<String, StringBuilder> executor = new PooledResourceSharingTaskExecutor<>(2);
+        AtomicInteger executing = new AtomicInteger();
+        AtomicInteger maxExecuting = new AtomicInteger();
+        int tasks = 1000;
+        CountDownLatch done = new CountDownLatch(tasks);
+        ExecutorService threadPool = newFixedThreadPool(8);
+        try {
+            //When
+            for (int i = 0; i < tasks; i++) {
+                threadPool.execute(() -> {
+                    executor.execute(appendTask("A", () -> {
+                        maxExecuting.accumulateAndGet(executing.incrementAndGet(), Math::max);
+                        Thread.yield();
+                        executing.decrementAndGet();
+                    }));
+                    done.countDown();
+                });
+            }
+            //Then
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertTrue(maxExecuting.get() <= 2, "max executing: " + maxExecuting.get());
+        assertEquals(opened.get(), closedResources.size());
+        assertEquals(tasks, closedResources.stream().mapToInt(closed -> closed.length() - 2).sum());
+    }
+
+    @Test
+    public void shouldRejectResourceOpenedAsNullWithoutLosingPoolSlot() throws Exception {
+        //Given
+        PooledResourceSharingTaskExecutor<String, StringBuilder> executor = new PooledResourceSharingTaskExecutor<>(1);
+        CountDownLatch opening = new CountDownLatch(1);
+        CountDownLatch finishOpening = new CountDownLatch(1);
+        TaskOnResource<String, StringBuilder> openingNull = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> {
+                            opening.countDown();
+                            awaitUninterruptibly(finishOpening);
+                            return null;
+                        })
+                        .withCloseResource(sb -> fail("Should not be closed"))
+                        .withExecuteOn(sb -> fail("Should not be executed"))
+                        .build();
+        ExecutorService threadPool = newFixedThreadPool(2);
+        try {
+            Future<?> first = threadPool.submit(() -> executor.execute(openingNull));
+            opening.await(5, TimeUnit.SECONDS);
+            Future<?> waiting = threadPool.submit(() -> executor.execute(appendTask("A", () -> {})));
+            Thread.sleep(50);
+            //When
+            finishOpening.countDown();
+            //Then
+            ExecutionException firstException = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertEquals("Resource opened as null: A", firstException.getCause().getMessage());
+            waiting.get(5, TimeUnit.SECONDS);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(1, opened.get());
+        assertEquals(1, closedResources.size());
+    }
+
+    @Test
+    public void shouldGiveBackPoolSlotWhenOpeningFailsWithError() throws Exception {
+        //Given
+        PooledResourceSharingTaskExecutor<String, StringBuilder> executor = new PooledResourceSharingTaskExecutor<>(1);
+        CountDownLatch opening = new CountDownLatch(1);
+        CountDownLatch failOpening = new CountDownLatch(1);
+        TaskOnResource<String, StringBuilder> failingToOpen = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> {
+                            opening.countDown();
+                            awaitUninterruptibly(failOpening);
+                            throw new AssertionError("Can't open A");
+                        })
+                        .withCloseResource(sb -> fail("Should not be closed"))
+                        .withExecuteOn(sb -> fail("Should not be executed"))
+                        .build();
+        ExecutorService threadPool = newFixedThreadPool(2);
+        try {
+            Future<?> first = threadPool.submit(() -> executor.execute(failingToOpen));
+            opening.await(5, TimeUnit.SECONDS);
+            Future<?> waiting = threadPool.submit(() -> executor.execute(appendTask("A", () -> {})));
+            Thread.sleep(50);
+            //When
+            failOpening.countDown();
+            //Then
+            ExecutionException firstException = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertTrue(firstException.getCause() instanceof AssertionError);
+            waiting.get(5, TimeUnit.SECONDS);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(1, opened.get());
+        assertEquals(1, closedResources.size());
+    }
+
+    @Test
+    public void shouldReleaseInstanceWhenTaskFailsWithError() throws Exception {
+        //Given
+        PooledResourceSharingTaskExecutor<String, StringBuilder> executor = new PooledResourceSharingTaskExecutor<>(1);
+        //When
+        assertThrows(AssertionError.class, () -> executor.execute(appendTask("A", () -> { throw new AssertionError("Task failed"); })));
+        //Then
+        ExecutorService threadPool = newFixedThreadPool(1);
+        try {
+            threadPool.submit(() -> executor.execute(appendTask("A", () -> {}))).get(5, TimeUnit.SECONDS);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        assertEquals(2, opened.get());
+        assertEquals(asList("A:", "A:X"), closedResources);
+    }
+
+    private TaskOnResource<String, StringBuilder> appendTask(String discriminator, Runnable action) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder(discriminator + ":"); })
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> { action.run(); sb.append("X"); })
+                        .build();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
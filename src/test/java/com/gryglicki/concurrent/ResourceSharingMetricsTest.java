@@ -0,0 +1,174 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link ResourceSharingMetrics} and {@link LatencyHistogram}
+ */
+public class ResourceSharingMetricsTest
+{
+    private final ResourceSharingMetrics<String> metrics = new ResourceSharingMetrics<>();
+
+    @Test
+    public void shouldCountOpeningExecutionAndClosingOfResources() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>(metrics);
+        //When
+        executor.execute(task("A", new CountDownLatch(0)));
+        executor.execute(task("B", new CountDownLatch(0)));
+        assertThrows(RuntimeException.class, () -> executor.execute(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> { throw new RuntimeException(); })
+                        .build()));
+        //Then
+        assertEquals(3, metrics.getOpenedCount());
+        assertEquals(3, metrics.getClosedCount());
+        assertEquals(0, metrics.getReusedCount());
+        assertEquals(0, metrics.getCurrentlyOpenCount());
+        assertEquals(1, metrics.getFailedExecutionsCount());
+        assertEquals(3, metrics.getExecuteLatency().getCount());
+        assertEquals(Collections.emptyMap(), metrics.getCurrentlyOpenPerDiscriminator());
+    }
+
+    @Test
+    public void shouldCountReusedResources() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor =
+                        new ConcurrentResourceSharingTaskExecutor<>(RotationPolicy.never(), metrics);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread first = new Thread(() -> executor.execute(task("A", finish)));
+        Thread second = new Thread(() -> executor.execute(task("A", finish)));
+        //When
+        first.start();
+        awaitState(first, Thread.State.WAITING);
+        second.start();
+        awaitState(second, Thread.State.WAITING);
+        //Then
+        assertEquals(1, metrics.getCurrentlyOpen("A"));
+        assertEquals(Collections.singletonMap("A", 1), metrics.getCurrentlyOpenPerDiscriminator());
+        finish.countDown();
+        first.join(5000);
+        second.join(5000);
+        assertEquals(1, metrics.getOpenedCount());
+        assertEquals(1, metrics.getReusedCount());
+        assertEquals(0.5, metrics.getReuseRatio());
+        assertEquals(0, metrics.getCurrentlyOpen("A"));
+        assertEquals(2, metrics.getWaitTime().getCount());
+    }
+
+    @Test
+    public void shouldNotCountResourceThatFailedToCloseAsOpenWithSynchronizedExecutor() throws Exception {
+        assertNotCountedAsOpenAfterFailedClosing(new SynchronizedResourceSharingTaskExecutor<>(metrics));
+    }
+
+    @Test
+    public void shouldNotCountResourceThatFailedToCloseAsOpenWithConcurrentExecutor() throws Exception {
+        assertNotCountedAsOpenAfterFailedClosing(new ConcurrentResourceSharingTaskExecutor<>(RotationPolicy.never(), metrics));
+    }
+
+    @Test
+    public void shouldNotCountForceClosedResourceAsOpen() throws Exception {
+        //Given
+        ConcurrentResourceSharingTaskExecutor<String, StringBuilder> executor = new ConcurrentResourceSharingTaskExecutor<>(
+                        RotationPolicy.never(), HungResourcePolicy.forceCloseAfter(50, TimeUnit.MILLISECONDS), metrics);
+        CountDownLatch hungTaskFinish = new CountDownLatch(1);
+        Thread hungTask = new Thread(() -> executor.execute(task("A", hungTaskFinish)));
+        hungTask.start();
+        awaitState(hungTask, Thread.State.WAITING);
+        //When
+        executor.execute(task("A", new CountDownLatch(0)));
+        hungTaskFinish.countDown();
+        hungTask.join(5000);
+        //Then
+        assertEquals(2, metrics.getOpenedCount());
+        assertEquals(2, metrics.getClosedCount());
+        assertEquals(0, metrics.getCurrentlyOpenCount());
+    }
+
+    @Test
+    public void shouldExposeMetricsWithJmx() throws Exception {
+        //Given
+        ResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>(metrics);
+        ObjectName objectName = metrics.registerMBean("com.gryglicki.concurrent:type=ResourceSharingMetrics,name=test");
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            //When
+            executor.execute(task("A", new CountDownLatch(0)));
+            //Then
+            assertEquals(1L, mBeanServer.getAttribute(objectName, "OpenedCount"));
+            assertEquals(0L, mBeanServer.getAttribute(objectName, "CurrentlyOpenCount"));
+        } finally {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void shouldApproximatePercentilesWithinBucketPrecision() throws Exception {
+        //Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        //When
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos);
+        }
+        //Then
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxNanos());
+        assertEquals(1000, histogram.getPercentileNanos(100));
+        long median = histogram.getPercentileNanos(50);
+        assertTrue(median >= 500 && median <= 500 * 1.125, "median " + median);
+        for (long value : new long[] {0, 7, 8, 17, 1000, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.upperBoundOf(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.upperBoundOf(index - 1) < value);
+        }
+    }
+
+    private void assertNotCountedAsOpenAfterFailedClosing(ResourceSharingTaskExecutor<String, StringBuilder> executor) {
+        //Given
+        TaskOnResource<String, StringBuilder> failingToClose = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("B")
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> { throw new IllegalStateException("Can't close B"); })
+                        .withExecuteOn(sb -> sb.append("X"))
+                        .build();
+        //When
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IllegalStateException.class, () -> executor.execute(failingToClose));
+        }
+        //Then
+        assertEquals(3, metrics.getOpenedCount());
+        assertEquals(3, metrics.getClosedCount());
+        assertEquals(0, metrics.getCurrentlyOpenCount());
+        assertEquals(Collections.emptyMap(), metrics.getCurrentlyOpenPerDiscriminator());
+    }
+
+    private static TaskOnResource<String, StringBuilder> task(String discriminator, CountDownLatch finish) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(StringBuilder::new)
+                        .withCloseResource(sb -> {})
+                        .withExecuteOn(sb -> {
+                            try {
+                                finish.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        })
+                        .build();
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != state) {
+            assertTrue(System.nanoTime() < deadline, "thread is not " + state);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -19,13 +19,10 @@ public class ResourceSharingTaskExecutorMultithreadedTest
 {
 
     /**
-     * TODO: Add multithreading and delegation to ExecutorService underneath ResourceSharingTaskExecutor
-     * TODO: Return from execute() CompletableFuture ????
      * TODO: Tests - without Threads => only simple functionality of opening /closing / writing
      * TODO: Tests - with Threads, with temporary files, ...
      * TODO: Configure testing with https://travis-ci.org/
      * TODO: Exception handling while open / close / executeOn
-     * TODO: Option (configurable) to close/reopen resource every X executeOn - to prevent not closing files at all
      */
 
 //    @Test
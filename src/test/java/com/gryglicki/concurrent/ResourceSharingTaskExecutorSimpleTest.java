@@ -24,11 +24,15 @@ public class ResourceSharingTaskExecutorSimpleTest
 
     @BeforeEach
     public void setUp() {
-        resourceSharingTaskExecutor = new SynchronizedResourceSharingTaskExecutor<>();
+        resourceSharingTaskExecutor = createResourceSharingTaskExecutor();
         result = new AtomicReference<>(null);
         eventHappened = new AtomicBoolean(false);
     }
 
+    protected ResourceSharingTaskExecutor<String, StringBuilder> createResourceSharingTaskExecutor() {
+        return new SynchronizedResourceSharingTaskExecutor<>();
+    }
+
     @Test
     public void shouldOpenResourceExecuteTaskAndCloseResource() throws Exception {
         //Given
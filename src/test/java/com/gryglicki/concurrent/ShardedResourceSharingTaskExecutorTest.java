@@ -0,0 +1,114 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link ShardedResourceSharingTaskExecutor} and it's {@link MpscRingBuffer}.
+ * Runs all the {@link ResourceSharingTaskExecutorSimpleTest} cases against this implementation too.
+ */
+public class ShardedResourceSharingTaskExecutorTest extends ResourceSharingTaskExecutorSimpleTest
+{
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final AtomicInteger appended = new AtomicInteger();
+
+    @Override
+    protected ResourceSharingTaskExecutor<String, StringBuilder> createResourceSharingTaskExecutor() {
+        return new ShardedResourceSharingTaskExecutor<>(2, 16);
+    }
+
+    @Test
+    public void shouldKeepResourceOpenWhileShardHasPendingTasksForIt() throws Exception {
+        //Given
+        ShardedResourceSharingTaskExecutor<String, StringBuilder> executor = new ShardedResourceSharingTaskExecutor<>(1, 16);
+        CountDownLatch firstTaskFinish = new CountDownLatch(1);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(executor.executeAsync(appendTask("A", () -> awaitUninterruptibly(firstTaskFinish))));
+        //When
+        for (int i = 0; i < 10; i++) {
+            futures.add(executor.executeAsync(appendTask("A", () -> {})));
+        }
+        firstTaskFinish.countDown();
+        //Then
+        for (CompletableFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(1, opened.get());
+        assertEquals(1, closed.get());
+        assertEquals(11, appended.get());
+        executor.close();
+    }
+
+    @Test
+    public void shouldExecuteAllTasksSubmittedByManyThreadsAndRejectTasksAfterClose() throws Exception {
+        //Given
+        ShardedResourceSharingTaskExecutor<String, StringBuilder> executor = new ShardedResourceSharingTaskExecutor<>(4, 8);
+        ExecutorService threadPool = newFixedThreadPool(8);
+        int tasks = 10_000;
+        CountDownLatch done = new CountDownLatch(tasks);
+        try {
+            //When
+            for (int i = 0; i < tasks; i++) {
+                String discriminator = "resource-" + (i % 32);
+                threadPool.execute(() -> {
+                    executor.execute(appendTask(discriminator, () -> {}));
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            threadPool.shutdownNow();
+        }
+        executor.close();
+        //Then
+        assertEquals(opened.get(), closed.get());
+        assertEquals(tasks, appended.get());
+        assertThrows(RejectedExecutionException.class, () -> executor.executeAsync(appendTask("A", () -> {})));
+    }
+
+    @Test
+    public void shouldRejectElementsWhenRingBufferIsFullAndReuseSlotsAfterPolling() {
+        //Given
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(3);
+        //When
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        //Then
+        assertFalse(buffer.offer(4));
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    private TaskOnResource<String, StringBuilder> appendTask(String discriminator, Runnable action) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder(); })
+                        .withCloseResource(sb -> { appended.addAndGet(sb.length()); closed.incrementAndGet(); })
+                        .withExecuteOn(sb -> { action.run(); sb.append("X"); })
+                        .build();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.gryglicki.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for {@link SynchronizedResourceSharingTaskExecutor} features not covered by {@link ResourceSharingTaskExecutorSimpleTest}
+ */
+public class SynchronizedResourceSharingTaskExecutorTest
+{
+    private final List<String> closedResources = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void shouldExecuteTaskOnAllResourcesAndCloseThem() {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        //When
+        executor.executeOnAll(appendToAllTask(resources -> resources.values().forEach(sb -> sb.append("X")), "A", "B"));
+        //Then
+        assertEquals(asList("A:X", "B:X"), closedResources);
+    }
+
+    @Test
+    public void shouldNotDeadlockWhenTasksDeclareResourcesInOppositeOrder() throws Exception {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        Runnable forward = () -> executor.executeOnAll(appendToAllTask(resources -> resources.values().forEach(sb -> sb.append("X")), "A", "B"));
+        Runnable backward = () -> executor.executeOnAll(appendToAllTask(resources -> resources.values().forEach(sb -> sb.append("X")), "B", "A"));
+        try {
+            //When
+            Future<?> forwardResult = threads.submit(() -> { for (int i = 0; i < 10_000; i++) forward.run(); });
+            Future<?> backwardResult = threads.submit(() -> { for (int i = 0; i < 10_000; i++) backward.run(); });
+            //Then
+            forwardResult.get(10, TimeUnit.SECONDS);
+            backwardResult.get(10, TimeUnit.SECONDS);
+        } finally {
+            threads.shutdownNow();
+        }
+        int appended = closedResources.stream().mapToInt(closed -> closed.length() - 2).sum();
+        assertEquals(2 * 2 * 10_000, appended);
+    }
+
+    @Test
+    public void shouldCloseAlreadyOpenedResourcesWhenOpeningOfAnotherOneFails() {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        TaskOnResources<String, StringBuilder> task = appendToAllTask(resources -> fail("Should not be executed"), "A", "FAIL");
+        //When
+        IllegalStateException ex = assertThrows(IllegalStateException.class, () -> executor.executeOnAll(task));
+        //Then
+        assertEquals("Can't open FAIL", ex.getMessage());
+        assertEquals(asList("A:"), closedResources);
+    }
+
+    @Test
+    public void shouldOpenPinnedResourcesInParallelAndKeepThemOpenUntilUnpinned() throws Exception {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        CyclicBarrier bothOpening = new CyclicBarrier(2);
+        AtomicInteger opened = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            //When
+            executor.pin(asList(appendTask("A", opened, bothOpening), appendTask("B", opened, bothOpening)), threads);
+            for (int i = 0; i < 3; i++) {
+                executor.execute(appendTask("A", opened, null));
+            }
+            //Then
+            assertEquals(2, opened.get());
+            assertTrue(closedResources.isEmpty());
+            executor.unpin(appendTask("A", opened, null));
+            executor.unpin(appendTask("A", opened, null));
+            assertEquals(asList("A:XXX"), closedResources);
+            executor.execute(appendTask("B", opened, null));
+            assertEquals(2, opened.get());
+            executor.unpin(appendTask("B", opened, null));
+            assertEquals(asList("A:XXX", "B:X"), closedResources);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldPinResourceAlreadyOpenedByRunningTask() throws Exception {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        AtomicInteger opened = new AtomicInteger();
+        //When
+        executor.execute(TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder("A:"); })
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> executor.pin(asList(appendTask("A", opened, null)), Runnable::run))
+                        .build());
+        //Then
+        assertEquals(1, opened.get());
+        assertTrue(closedResources.isEmpty());
+        executor.unpin(appendTask("A", opened, null));
+        assertEquals(asList("A:"), closedResources);
+    }
+
+    @Test
+    public void shouldFailWithoutNullPointerExceptionWhenResourceIsOpenedAsNull() {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        TaskOnResource<String, StringBuilder> task = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> null)
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> fail("Should not be executed"))
+                        .build();
+        //When
+        IllegalStateException ex = assertThrows(IllegalStateException.class, () -> executor.execute(task));
+        //Then
+        assertEquals("Resource opened as null: A", ex.getMessage());
+        assertTrue(closedResources.isEmpty());
+    }
+
+    @Test
+    public void shouldReopenResourceThatFailedToClose() {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        AtomicInteger opened = new AtomicInteger();
+        TaskOnResource<String, StringBuilder> failingToClose = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> { opened.incrementAndGet(); return new StringBuilder("A:"); })
+                        .withCloseResource(sb -> { throw new IllegalStateException("Can't close A"); })
+                        .withExecuteOn(sb -> sb.append("X"))
+                        .build();
+        //When
+        assertThrows(IllegalStateException.class, () -> executor.execute(failingToClose));
+        executor.execute(appendTask("A", opened, null));
+        //Then
+        assertEquals(2, opened.get());
+        assertEquals(asList("A:X"), closedResources);
+    }
+
+    @Test
+    public void shouldReopenPoisonedResource() {
+        //Given
+        FailurePolicy failurePolicy = FailurePolicy.defaults().poisonOn(ex -> ex instanceof IllegalStateException);
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor =
+                        new SynchronizedResourceSharingTaskExecutor<>(failurePolicy, ResourceSharingListener.noOp());
+        AtomicInteger opened = new AtomicInteger();
+        executor.pin(asList(appendTask("A", opened, null)), Runnable::run);
+        TaskOnResource<String, StringBuilder> poisoning = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> { throw new AssertionError("Should not be opened"); })
+                        .withCloseResource(sb -> closedResources.add(sb.toString() + "!"))
+                        .withExecuteOn(sb -> { sb.append("P"); throw new IllegalStateException("Broken A"); })
+                        .build();
+        //When
+        assertThrows(IllegalStateException.class, () -> executor.execute(poisoning));
+        executor.execute(appendTask("A", opened, null));
+        //Then
+        assertEquals(2, opened.get());
+        assertEquals(asList("A:P!", "A:X"), closedResources);
+    }
+
+    @Test
+    public void shouldFailFastDuringBackoffAfterFailedOpening() throws Exception {
+        //Given
+        FailurePolicy failurePolicy = FailurePolicy.defaults().withOpenBackoff(200, 200, TimeUnit.MILLISECONDS);
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor =
+                        new SynchronizedResourceSharingTaskExecutor<>(failurePolicy, ResourceSharingListener.noOp());
+        AtomicInteger openings = new AtomicInteger();
+        AtomicInteger opened = new AtomicInteger();
+        TaskOnResource<String, StringBuilder> failingToOpen = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> { openings.incrementAndGet(); throw new IllegalStateException("Can't open A"); })
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> fail("Should not be executed"))
+                        .build();
+        //When
+        assertThrows(IllegalStateException.class, () -> executor.execute(failingToOpen));
+        ResourceUnavailableException ex = assertThrows(ResourceUnavailableException.class, () -> executor.execute(failingToOpen));
+        //Then
+        assertEquals("Can't open A", ex.getCause().getMessage());
+        assertEquals(1, openings.get());
+        Thread.sleep(250);
+        executor.execute(appendTask("A", opened, null));
+        assertEquals(1, opened.get());
+        assertEquals(asList("A:X"), closedResources);
+    }
+
+    @Test
+    public void shouldReportFailedOpeningToTasksWaitingForTheResource() throws Exception {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>();
+        AtomicInteger openings = new AtomicInteger();
+        CountDownLatch opening = new CountDownLatch(1);
+        TaskOnResource<String, StringBuilder> failingToOpen = TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> {
+                            openings.incrementAndGet();
+                            opening.countDown();
+                            sleepUninterruptibly(200);
+                            throw new IllegalStateException("Can't open A");
+                        })
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> fail("Should not be executed"))
+                        .build();
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            Future<?> first = threads.submit(() -> executor.execute(failingToOpen));
+            opening.await(5, TimeUnit.SECONDS);
+            //When
+            List<Future<?>> waiting = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                waiting.add(threads.submit(() -> executor.execute(failingToOpen)));
+            }
+            //Then
+            ExecutionException firstException = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+            assertTrue(firstException.getCause() instanceof IllegalStateException);
+            for (Future<?> waitingTask : waiting) {
+                ExecutionException waitingException = assertThrows(ExecutionException.class, () -> waitingTask.get(5, TimeUnit.SECONDS));
+                assertTrue(waitingException.getCause() instanceof ResourceUnavailableException);
+            }
+            assertEquals(1, openings.get());
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldExecuteWaitingTasksByPriority() throws Exception {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>(
+                        FailurePolicy.defaults(), SchedulingPolicy.byPriority(1, TimeUnit.HOURS), ResourceSharingListener.noOp());
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread blocking = startExecuting(executor, blockingTask(executing, release));
+        executing.await(5, TimeUnit.SECONDS);
+        //When
+        Thread low = startWaiting(executor, priorityTask("L", 0));
+        Thread otherLow = startWaiting(executor, priorityTask("l", 0));
+        Thread high = startWaiting(executor, priorityTask("H", 5));
+        release.countDown();
+        //Then
+        for (Thread thread : asList(blocking, low, otherLow, high)) {
+            thread.join(5000);
+        }
+        assertEquals(asList("A:BHLl"), closedResources);
+    }
+
+    @Test
+    public void shouldExecuteLongWaitingTaskBeforeHigherPriorityOne() throws Exception {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>(
+                        FailurePolicy.defaults(), SchedulingPolicy.byPriority(10, TimeUnit.MILLISECONDS), ResourceSharingListener.noOp());
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread blocking = startExecuting(executor, blockingTask(executing, release));
+        executing.await(5, TimeUnit.SECONDS);
+        //When
+        Thread aged = startWaiting(executor, priorityTask("L", 0));
+        Thread.sleep(100);
+        Thread high = startWaiting(executor, priorityTask("H", 5));
+        release.countDown();
+        //Then
+        for (Thread thread : asList(blocking, aged, high)) {
+            thread.join(5000);
+        }
+        assertEquals(asList("A:BLH"), closedResources);
+    }
+
+    @Test
+    public void shouldExecuteWaitingTasksInArrivalOrderWhenFair() throws Exception {
+        //Given
+        SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor = new SynchronizedResourceSharingTaskExecutor<>(
+                        FailurePolicy.defaults(), SchedulingPolicy.fair(), ResourceSharingListener.noOp());
+        CountDownLatch executing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread blocking = startExecuting(executor, blockingTask(executing, release));
+        executing.await(5, TimeUnit.SECONDS);
+        //When
+        List<Thread> waiting = new ArrayList<>();
+        for (String content : asList("1", "2", "3", "4")) {
+            waiting.add(startWaiting(executor, priorityTask(content, Integer.parseInt(content))));
+        }
+        release.countDown();
+        //Then
+        blocking.join(5000);
+        for (Thread thread : waiting) {
+            thread.join(5000);
+        }
+        assertEquals(asList("A:B1234"), closedResources);
+    }
+
+    private TaskOnResource<String, StringBuilder> blockingTask(CountDownLatch executing, CountDownLatch release) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> new StringBuilder("A:"))
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> {
+                            sb.append("B");
+                            executing.countDown();
+                            try {
+                                release.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        })
+                        .build();
+    }
+
+    private TaskOnResource<String, StringBuilder> priorityTask(String content, int priority) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator("A")
+                        .withOpenResource(() -> new StringBuilder("A:"))
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> sb.append(content))
+                        .withPriority(priority)
+                        .build();
+    }
+
+    private Thread startExecuting(SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor, TaskOnResource<String, StringBuilder> task) {
+        Thread thread = new Thread(() -> executor.execute(task));
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Starts executing the task and waits until it's waiting for the busy Resource.
+     */
+    private Thread startWaiting(SynchronizedResourceSharingTaskExecutor<String, StringBuilder> executor, TaskOnResource<String, StringBuilder> task) throws InterruptedException {
+        Thread thread = startExecuting(executor, task);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+
+    private static void sleepUninterruptibly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private TaskOnResource<String, StringBuilder> appendTask(String discriminator, AtomicInteger opened, CyclicBarrier openingBarrier) {
+        return TaskOnResourceBuilder.<String, StringBuilder>builderWithDiscriminator(discriminator)
+                        .withOpenResource(() -> {
+                            opened.incrementAndGet();
+                            if (openingBarrier != null) {
+                                try {
+                                    openingBarrier.await(5, TimeUnit.SECONDS);
+                                } catch (Exception e) {
+                                    throw new IllegalStateException("Resources were not opened in parallel", e);
+                                }
+                            }
+                            return new StringBuilder(discriminator + ":");
+                        })
+                        .withCloseResource(sb -> closedResources.add(sb.toString()))
+                        .withExecuteOn(sb -> sb.append("X"))
+                        .build();
+    }
+
+    private TaskOnResources<String, StringBuilder> appendToAllTask(Consumer<Map<String, StringBuilder>> action, String... discriminators) {
+        Set<String> resourceDiscriminators = new LinkedHashSet<>(Arrays.asList(discriminators));
+        return new TaskOnResources<String, StringBuilder>() {
+            @Override
+            public Set<String> getResourceDiscriminators() {
+                return resourceDiscriminators;
+            }
+
+            @Override
+            public StringBuilder openResource(String resourceDiscriminator) {
+                if (resourceDiscriminator.equals("FAIL")) {
+                    throw new IllegalStateException("Can't open " + resourceDiscriminator);
+                }
+                return new StringBuilder(resourceDiscriminator + ":");
+            }
+
+            @Override
+            public void closeResource(String resourceDiscriminator, StringBuilder resource) {
+                closedResources.add(resource.toString());
+            }
+
+            @Override
+            public void executeOn(Map<String, StringBuilder> resources) {
+                action.accept(resources);
+            }
+        };
+    }
+}